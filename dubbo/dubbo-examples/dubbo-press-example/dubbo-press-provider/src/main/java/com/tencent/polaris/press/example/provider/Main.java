@@ -29,6 +29,8 @@ public class Main {
     public static void main(String[] args) throws InterruptedException {
         AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(ConsumerConfiguration.class);
         context.start();
+        // registry check=false 时 20 个 PressAPI 接口并行注册，start 返回时注册可能仍在进行，注册总耗时见日志 "registrations finished"，
+        // 可通过 REGISTER_CONCURRENCY=0 或 REGISTRY_CHECK=true 对比逐个同步注册的启动耗时
 
         while (true) {
             TimeUnit.SECONDS.sleep(1);
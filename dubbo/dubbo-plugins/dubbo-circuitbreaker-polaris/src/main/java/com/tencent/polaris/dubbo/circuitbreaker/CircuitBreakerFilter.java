@@ -17,22 +17,17 @@
 
 package com.tencent.polaris.dubbo.circuitbreaker;
 
-import com.tencent.polaris.api.plugin.circuitbreaker.ResourceStat;
-import com.tencent.polaris.api.plugin.circuitbreaker.entity.InstanceResource;
-import com.tencent.polaris.api.plugin.circuitbreaker.entity.Resource;
 import com.tencent.polaris.api.pojo.CircuitBreakerStatus;
-import com.tencent.polaris.api.pojo.RetStatus;
 import com.tencent.polaris.api.pojo.ServiceKey;
-import com.tencent.polaris.api.utils.StringUtils;
 import com.tencent.polaris.circuitbreak.api.CircuitBreakAPI;
 import com.tencent.polaris.circuitbreak.api.InvokeHandler;
 import com.tencent.polaris.circuitbreak.api.pojo.InvokeContext;
 import com.tencent.polaris.circuitbreak.api.pojo.ResultToErrorCode;
 import com.tencent.polaris.circuitbreak.client.exception.CallAbortedException;
-import com.tencent.polaris.common.exception.PolarisBlockException;
 import com.tencent.polaris.common.registry.DubboServiceInfo;
 import com.tencent.polaris.common.registry.PolarisOperator;
 import com.tencent.polaris.common.registry.PolarisOperatorDelegate;
+import com.tencent.polaris.common.report.GovernanceContext;
 import com.tencent.polaris.common.utils.DubboUtils;
 import org.apache.dubbo.common.URL;
 import org.apache.dubbo.common.constants.CommonConstants;
@@ -53,7 +48,7 @@ import java.util.ServiceLoader;
 import java.util.concurrent.TimeUnit;
 
 @Activate(group = CommonConstants.CONSUMER)
-public class CircuitBreakerFilter extends PolarisOperatorDelegate implements Filter, ResultToErrorCode {
+public class CircuitBreakerFilter extends PolarisOperatorDelegate implements Filter, Filter.Listener, ResultToErrorCode {
 
     protected final ErrorTypeAwareLogger logger = LoggerFactory.getErrorTypeAwareLogger(getClass());
 
@@ -87,34 +82,7 @@ public class CircuitBreakerFilter extends PolarisOperatorDelegate implements Fil
         context.setResultToErrorCode(this);
         InvokeHandler handler = circuitBreakAPI.makeInvokeHandler(context);
         try {
-            long startTimeMilli = System.currentTimeMillis();
-            InvokeContext.ResponseContext responseContext = new InvokeContext.ResponseContext();
-            responseContext.setDurationUnit(TimeUnit.MILLISECONDS);
-            Result result = null;
-            RpcException exception = null;
             handler.acquirePermission();
-            try {
-                result = invoker.invoke(invocation);
-                responseContext.setDuration(System.currentTimeMillis() - startTimeMilli);
-                if (result.hasException()) {
-                    responseContext.setError(result.getException());
-                    handler.onError(responseContext);
-                } else {
-                    responseContext.setResult(result);
-                    handler.onSuccess(responseContext);
-                }
-            } catch (RpcException e) {
-                exception = e;
-                responseContext.setError(e);
-                responseContext.setDuration(System.currentTimeMillis() - startTimeMilli);
-                handler.onError(responseContext);
-            }
-            ResourceStat resourceStat = createInstanceResourceStat(invoker, invocation, firstService, responseContext, responseContext.getDuration());
-            circuitBreakAPI.report(resourceStat);
-            if (result != null) {
-                return result;
-            }
-            throw exception;
         } catch (CallAbortedException abortedException) {
             CircuitBreakerStatus.FallbackInfo fallbackInfo = abortedException.getFallbackInfo();
             if (Objects.nonNull(fallbackInfo)) {
@@ -128,40 +96,63 @@ public class CircuitBreakerFilter extends PolarisOperatorDelegate implements Fil
             }
             throw new RpcException(abortedException);
         }
+        // 与上报过滤器共享治理上下文，未启用上报过滤器时由本过滤器创建并自行上报
+        GovernanceContext governanceContext = GovernanceContext.get(invocation);
+        if (null == governanceContext || governanceContext.isCompleted()) {
+            governanceContext = GovernanceContext.create(invocation, false);
+        }
+        governanceContext.attachCircuitBreaker(handler, firstService.getService());
+        return invoker.invoke(invocation);
     }
 
-    private ResourceStat createInstanceResourceStat(Invoker<?> invoker, Invocation invocation, DubboServiceInfo serviceInfo,
-                                                    InvokeContext.ResponseContext context, long delay) {
-        URL url = invoker.getUrl();
-        Throwable exception = context.getError();
-        RetStatus retStatus = RetStatus.RetSuccess;
-        int code = 0;
-        if (null != exception) {
-            retStatus = RetStatus.RetFail;
-            if (exception instanceof RpcException) {
-                RpcException rpcException = (RpcException) exception;
-                code = rpcException.getCode();
-                if (StringUtils.isNotBlank(rpcException.getMessage()) && rpcException.getMessage()
-                        .contains(PolarisBlockException.PREFIX)) {
-                    // 限流异常不进行熔断
-                    retStatus = RetStatus.RetFlowControl;
-                }
-                if (rpcException.isTimeout()) {
-                    retStatus = RetStatus.RetTimeout;
-                }
-            } else {
-                code = -1;
-            }
+    @Override
+    public void onResponse(Result appResponse, Invoker<?> invoker, Invocation invocation) {
+        GovernanceContext governanceContext = GovernanceContext.get(invocation);
+        if (null == governanceContext || !governanceContext.isCircuitBreakerAttached()) {
+            return;
+        }
+        governanceContext.onResponse(appResponse);
+        InvokeContext.ResponseContext responseContext = newResponseContext(governanceContext);
+        if (appResponse.hasException()) {
+            responseContext.setError(appResponse.getException());
+            governanceContext.getInvokeHandler().onError(responseContext);
+        } else {
+            responseContext.setResult(appResponse);
+            governanceContext.getInvokeHandler().onSuccess(responseContext);
         }
+        reportInstanceStat(governanceContext, invoker);
+    }
+
+    @Override
+    public void onError(Throwable t, Invoker<?> invoker, Invocation invocation) {
+        GovernanceContext governanceContext = GovernanceContext.get(invocation);
+        if (null == governanceContext || !governanceContext.isCircuitBreakerAttached()) {
+            return;
+        }
+        governanceContext.onError(t);
+        InvokeContext.ResponseContext responseContext = newResponseContext(governanceContext);
+        responseContext.setError(t);
+        governanceContext.getInvokeHandler().onError(responseContext);
+        reportInstanceStat(governanceContext, invoker);
+    }
 
-        ServiceKey calleeServiceKey = createCalleeService(serviceInfo);
-        Resource resource = new InstanceResource(
-                calleeServiceKey,
-                url.getHost(),
-                url.getPort(),
-                new ServiceKey()
-        );
-        return new ResourceStat(resource, code, delay, retStatus);
+    private InvokeContext.ResponseContext newResponseContext(GovernanceContext governanceContext) {
+        InvokeContext.ResponseContext responseContext = new InvokeContext.ResponseContext();
+        responseContext.setDurationUnit(TimeUnit.MILLISECONDS);
+        responseContext.setDuration(governanceContext.getDelayMillis());
+        return responseContext;
+    }
+
+    /**
+     * 启用上报过滤器时，实例级熔断统计由上报过滤器与调用结果合并上报
+     */
+    private void reportInstanceStat(GovernanceContext governanceContext, Invoker<?> invoker) {
+        if (governanceContext.isReporterAttached()) {
+            return;
+        }
+        URL url = invoker.getUrl();
+        String service = governanceContext.getCircuitBreakerService();
+        operator.reportCircuitBreakerStat(governanceContext, service, url.getHost(), url.getPort());
     }
 
     private ServiceKey createCalleeService(DubboServiceInfo serviceInfo) {
@@ -0,0 +1,509 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.dubbo.loadbalance;
+
+import com.tencent.polaris.common.loadbalance.InstanceStats;
+import com.tencent.polaris.common.loadbalance.InstanceStatsRegistry;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.cluster.Constants;
+import org.apache.dubbo.rpc.cluster.Directory;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 某个服务全量 Invoker 对应的负载均衡选择表，只在目录中的实例集合变化时构建。
+ * <p>
+ * 加权随机使用 Vose 别名表，一致性哈希使用按权重分配虚拟节点的哈希环。
+ * 路由后的子集通过 {@link Mask} 在同一张表上选择，路由结果变化不会重建选择表，也不会丢失 P2C 的实例统计。
+ * P2C 按权重抽取两个候选实例，选择延迟 EWMA 与在途请求数综合代价较低的一个。
+ */
+class LoadBalanceTable {
+
+    /**
+     * 权重为默认值（100）的实例在哈希环上的虚拟节点数
+     */
+    private static final int VIRTUAL_NODES = 64;
+
+    private static final int MAX_VIRTUAL_NODES = VIRTUAL_NODES * 16;
+
+    /**
+     * 子集选择时在全量别名表上拒绝采样的次数，均未落入子集时退化为子集内的线性加权选择
+     */
+    private static final int REJECTION_ATTEMPTS = 4;
+
+    private static final ThreadLocal<Mask> MASKS = ThreadLocal.withInitial(Mask::new);
+
+    private final long fingerprint;
+
+    /**
+     * 构建选择表的全量列表来源，来源未变化时无需重新计算指纹
+     */
+    private volatile Object source;
+
+    /**
+     * 构建选择表的目录，调用上下文中取不到目录时为 null
+     */
+    private volatile Directory<?> directory;
+
+    private final int size;
+
+    private final Invoker<?>[] invokers;
+
+    private final Map<Invoker<?>, Integer> positions;
+
+    private final int[] weights;
+
+    private final String[] addresses;
+
+    private final long[] addressHashes;
+
+    private final double[] probabilities;
+
+    private final int[] aliases;
+
+    private volatile Ring ring;
+
+    private volatile InstanceStats[] stats;
+
+    private boolean released;
+
+    private LoadBalanceTable(long fingerprint, Invoker<?>[] invokers, int[] weights, String[] addresses,
+            long[] addressHashes) {
+        this.fingerprint = fingerprint;
+        this.size = weights.length;
+        this.invokers = invokers;
+        this.positions = new IdentityHashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            positions.put(invokers[i], i);
+        }
+        this.weights = weights;
+        this.addresses = addresses;
+        this.addressHashes = addressHashes;
+        this.probabilities = new double[size];
+        this.aliases = new int[size];
+        buildAliasTable();
+    }
+
+    /**
+     * Invoker 列表的指纹，与列表中 Invoker 的身份及顺序相关，用于判断实例集合是否发生变化
+     */
+    static long fingerprint(List<? extends Invoker<?>> invokers) {
+        long hash = invokers.size();
+        for (Invoker<?> invoker : invokers) {
+            hash = hash * 31 + mix(System.identityHashCode(invoker));
+        }
+        return hash;
+    }
+
+    static LoadBalanceTable build(List<? extends Invoker<?>> invokers, long fingerprint) {
+        Invoker<?>[] members = new Invoker<?>[invokers.size()];
+        int[] weights = new int[invokers.size()];
+        String[] addresses = new String[invokers.size()];
+        long[] addressHashes = new long[invokers.size()];
+        int index = 0;
+        for (Invoker<?> invoker : invokers) {
+            members[index] = invoker;
+            weights[index] = Math.max(invoker.getUrl().getParameter(Constants.WEIGHT_KEY, Constants.DEFAULT_WEIGHT), 0);
+            addresses[index] = invoker.getUrl().getAddress();
+            addressHashes[index] = hash(addresses[index]);
+            index++;
+        }
+        return new LoadBalanceTable(fingerprint, members, weights, addresses, addressHashes);
+    }
+
+    /**
+     * 只用于本次选择、不会被缓存的选择表，不引用实例统计
+     */
+    static LoadBalanceTable buildTransient(List<? extends Invoker<?>> invokers) {
+        LoadBalanceTable table = build(invokers, 0);
+        table.release();
+        return table;
+    }
+
+    long getFingerprint() {
+        return fingerprint;
+    }
+
+    boolean isBuiltFrom(Object source) {
+        return null != source && source == this.source;
+    }
+
+    void setSource(Object source, Directory<?> directory) {
+        this.source = source;
+        if (null != directory) {
+            this.directory = directory;
+        }
+    }
+
+    /**
+     * 目录已销毁，或者不知道目录时全部 Invoker 均已不可用（引用销毁时 Invoker 随之销毁），选择表不会再被使用
+     */
+    boolean isObsolete() {
+        Directory<?> current = directory;
+        if (null != current) {
+            return current.isDestroyed();
+        }
+        for (Invoker<?> invoker : invokers) {
+            if (invoker.isAvailable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Invoker<?> getInvoker(int index) {
+        return invokers[index];
+    }
+
+    /**
+     * 计算子集在本表上的掩码，返回当前线程复用的对象，只能在本次选择内使用
+     *
+     * @return 子集中存在本表之外的 Invoker（目录刚刷新，选择表尚未更新）时返回 null
+     */
+    Mask mask(List<? extends Invoker<?>> subset) {
+        Mask mask = MASKS.get();
+        mask.reset(size);
+        for (Invoker<?> invoker : subset) {
+            Integer position = positions.get(invoker);
+            if (null == position) {
+                return null;
+            }
+            mask.set(position);
+        }
+        return mask;
+    }
+
+    int selectByWeight(Mask mask) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (mask.isFull()) {
+            return selectByAlias(random);
+        }
+        for (int i = 0; i < REJECTION_ATTEMPTS; i++) {
+            int index = selectByAlias(random);
+            if (mask.contains(index)) {
+                return index;
+            }
+        }
+        long totalWeight = 0;
+        for (int index = mask.next(0); index >= 0; index = mask.next(index + 1)) {
+            totalWeight += weights[index];
+        }
+        if (totalWeight == 0) {
+            return mask.nth(random.nextInt(mask.count()));
+        }
+        long point = random.nextLong(totalWeight);
+        int index = mask.next(0);
+        while ((point -= weights[index]) >= 0) {
+            index = mask.next(index + 1);
+        }
+        return index;
+    }
+
+    int selectByHash(String hashKey, Mask mask) {
+        Ring current = ring;
+        if (null == current) {
+            current = new Ring(weights, addressHashes);
+            ring = current;
+        }
+        return current.select(mix(hash(hashKey)), mask);
+    }
+
+    int selectByLatency(Mask mask) {
+        int first = selectByWeight(mask);
+        int count = mask.count();
+        if (count == 1) {
+            return first;
+        }
+        int second = selectByWeight(mask);
+        if (second == first) {
+            second = mask.nth((mask.rank(first) + 1 + ThreadLocalRandom.current().nextInt(count - 1)) % count);
+        }
+        InstanceStats[] current = acquireStats();
+        if (null == current) {
+            return first;
+        }
+        long now = System.nanoTime();
+        return current[second].cost(now) < current[first].cost(now) ? second : first;
+    }
+
+    /**
+     * 接替被替换的选择表：旧表已引用实例统计时先引用新表的统计再释放旧表，仍在线实例的统计得以保留
+     */
+    void takeOver(LoadBalanceTable previous) {
+        if (null != previous.stats) {
+            acquireStats();
+        }
+        previous.release();
+    }
+
+    /**
+     * 选择表被替换后释放对实例统计的引用，已下线实例的统计由此移除
+     */
+    synchronized void release() {
+        released = true;
+        InstanceStats[] current = stats;
+        stats = null;
+        if (null == current) {
+            return;
+        }
+        for (String address : addresses) {
+            InstanceStatsRegistry.release(address);
+        }
+    }
+
+    private int selectByAlias(ThreadLocalRandom random) {
+        int index = random.nextInt(size);
+        return random.nextDouble() < probabilities[index] ? index : aliases[index];
+    }
+
+    private InstanceStats[] acquireStats() {
+        InstanceStats[] current = stats;
+        if (null != current) {
+            return current;
+        }
+        synchronized (this) {
+            if (released) {
+                return null;
+            }
+            if (null == stats) {
+                InstanceStats[] acquired = new InstanceStats[size];
+                for (int i = 0; i < size; i++) {
+                    acquired[i] = InstanceStatsRegistry.acquire(addresses[i]);
+                }
+                stats = acquired;
+            }
+            return stats;
+        }
+    }
+
+    private void buildAliasTable() {
+        long totalWeight = 0;
+        for (int weight : weights) {
+            totalWeight += weight;
+        }
+        double[] scaled = new double[size];
+        for (int i = 0; i < size; i++) {
+            // 权重全部为 0 时按等权处理
+            scaled[i] = totalWeight == 0 ? 1.0 : (double) weights[i] * size / totalWeight;
+        }
+        int[] small = new int[size];
+        int[] large = new int[size];
+        int smallSize = 0;
+        int largeSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (scaled[i] < 1.0) {
+                small[smallSize++] = i;
+            } else {
+                large[largeSize++] = i;
+            }
+        }
+        while (smallSize > 0 && largeSize > 0) {
+            int less = small[--smallSize];
+            int more = large[--largeSize];
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1.0;
+            if (scaled[more] < 1.0) {
+                small[smallSize++] = more;
+            } else {
+                large[largeSize++] = more;
+            }
+        }
+        while (largeSize > 0) {
+            int index = large[--largeSize];
+            probabilities[index] = 1.0;
+            aliases[index] = index;
+        }
+        while (smallSize > 0) {
+            int index = small[--smallSize];
+            probabilities[index] = 1.0;
+            aliases[index] = index;
+        }
+    }
+
+    private static final class Ring {
+
+        private final long[] points;
+
+        private final int[] owners;
+
+        Ring(int[] weights, long[] addressHashes) {
+            int total = 0;
+            int[] replicas = new int[weights.length];
+            for (int i = 0; i < weights.length; i++) {
+                replicas[i] = (int) Math.min(Math.max((long) VIRTUAL_NODES * weights[i] / Constants.DEFAULT_WEIGHT, 1),
+                        MAX_VIRTUAL_NODES);
+                total += replicas[i];
+            }
+            long[] hashes = new long[total];
+            int[] ownerOfEntry = new int[total];
+            int index = 0;
+            for (int i = 0; i < weights.length; i++) {
+                for (int replica = 0; replica < replicas[i]; replica++) {
+                    hashes[index] = mix(addressHashes[i] + replica * 0x9E3779B97F4A7C15L);
+                    ownerOfEntry[index] = i;
+                    index++;
+                }
+            }
+            // 按哈希值排序，owners 记录每个虚拟节点所属的实例下标
+            Integer[] order = new Integer[total];
+            for (int i = 0; i < total; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+            this.points = new long[total];
+            this.owners = new int[total];
+            for (int i = 0; i < total; i++) {
+                points[i] = hashes[order[i]];
+                owners[i] = ownerOfEntry[order[i]];
+            }
+        }
+
+        /**
+         * 从哈希值所在位置顺时针查找第一个属于子集的虚拟节点，子集变化只影响落在被移除实例上的请求
+         */
+        int select(long hash, Mask mask) {
+            int index = Arrays.binarySearch(points, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            for (int i = 0; i < points.length; i++) {
+                int owner = owners[(index + i) % points.length];
+                if (mask.contains(owner)) {
+                    return owner;
+                }
+            }
+            throw new IllegalStateException("no virtual node in subset");
+        }
+    }
+
+    /**
+     * 路由后子集在选择表上的位掩码
+     */
+    static final class Mask {
+
+        private long[] words = new long[1];
+
+        private int size;
+
+        private int count;
+
+        void reset(int size) {
+            int length = (size + 63) >>> 6;
+            if (words.length < length) {
+                words = new long[length];
+            } else {
+                Arrays.fill(words, 0, length, 0L);
+            }
+            this.size = size;
+            this.count = 0;
+        }
+
+        void set(int index) {
+            long bit = 1L << index;
+            if ((words[index >>> 6] & bit) == 0) {
+                words[index >>> 6] |= bit;
+                count++;
+            }
+        }
+
+        boolean contains(int index) {
+            return (words[index >>> 6] & (1L << index)) != 0;
+        }
+
+        boolean isFull() {
+            return count == size;
+        }
+
+        int count() {
+            return count;
+        }
+
+        /**
+         * @return 不小于 from 的第一个子集下标，不存在时返回 -1
+         */
+        int next(int from) {
+            if (from >= size) {
+                return -1;
+            }
+            int wordIndex = from >>> 6;
+            long word = words[wordIndex] & (-1L << from);
+            while (true) {
+                if (word != 0) {
+                    return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+                }
+                if (++wordIndex >= (size + 63) >>> 6) {
+                    return -1;
+                }
+                word = words[wordIndex];
+            }
+        }
+
+        /**
+         * @return 子集中第 n 个（从 0 开始）实例的下标
+         */
+        int nth(int n) {
+            for (int wordIndex = 0; ; wordIndex++) {
+                long word = words[wordIndex];
+                int bits = Long.bitCount(word);
+                if (n < bits) {
+                    for (int i = 0; i < n; i++) {
+                        word &= word - 1;
+                    }
+                    return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+                }
+                n -= bits;
+            }
+        }
+
+        /**
+         * @return 下标 index 在子集中的序号
+         */
+        int rank(int index) {
+            int rank = 0;
+            for (int wordIndex = 0; wordIndex < index >>> 6; wordIndex++) {
+                rank += Long.bitCount(words[wordIndex]);
+            }
+            return rank + Long.bitCount(words[index >>> 6] & ((1L << index) - 1));
+        }
+    }
+
+    private static long hash(String value) {
+        // FNV-1a 64
+        long hash = 0xcbf29ce484222325L;
+        if (null == value) {
+            return hash;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long value) {
+        // SplitMix64 finalizer
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.dubbo.loadbalance;
+
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.common.parser.QueryParser;
+import com.tencent.polaris.common.utils.Consts;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.logger.ErrorTypeAwareLogger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.cluster.ClusterInvoker;
+import org.apache.dubbo.rpc.cluster.Directory;
+import org.apache.dubbo.rpc.cluster.loadbalance.AbstractLoadBalance;
+import org.apache.dubbo.rpc.cluster.router.state.BitList;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 基于北极星实例权重的负载均衡，通过 loadbalance="polaris" 启用。
+ * <p>
+ * 默认使用加权随机；配置了 {@link Consts#KEY_LB_HASH_HEADER}（从请求 attachment 取值）或
+ * {@link Consts#KEY_LB_HASH_QUERY}（通过 {@link QueryParser} 从请求参数取值）时使用一致性哈希，
+ * 也可以通过 {@link Consts#KEY_LB_POLICY} 显式指定。以上参数均支持方法级配置。
+ * <p>
+ * 指定 {@link Consts#LB_POLICY_P2C} 时，基于上报过滤器记录的延迟 EWMA 与在途请求数做 power-of-two-choices 选择。
+ */
+public class PolarisLoadBalance extends AbstractLoadBalance {
+
+    public static final String NAME = "polaris";
+
+    private static final ErrorTypeAwareLogger LOGGER = LoggerFactory.getErrorTypeAwareLogger(PolarisLoadBalance.class);
+
+    /**
+     * 清理已销毁引用对应选择表的间隔
+     */
+    private static final long EVICT_INTERVAL_SECONDS = 60;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "polaris-dubbo-loadbalance-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, LoadBalanceTable> tables = new ConcurrentHashMap<>();
+
+    private final Map<String, Function<Object[], Optional<String>>> queryAccessors = new ConcurrentHashMap<>();
+
+    private final QueryParser parser;
+
+    public PolarisLoadBalance() {
+        LOGGER.info("[POLARIS] init polaris loadbalance");
+        this.parser = QueryParser.load();
+        SCHEDULER.scheduleWithFixedDelay(this::evictObsolete, EVICT_INTERVAL_SECONDS, EVICT_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected <T> Invoker<T> doSelect(List<Invoker<T>> invokers, URL url, Invocation invocation) {
+        LoadBalanceTable table = getTable(invokers, invocation);
+        LoadBalanceTable.Mask mask = table.mask(invokers);
+        if (null == mask) {
+            table = LoadBalanceTable.buildTransient(invokers);
+            mask = table.mask(invokers);
+        }
+        String policy = url.getMethodParameter(invocation.getMethodName(), Consts.KEY_LB_POLICY);
+        int index;
+        if (Consts.LB_POLICY_P2C.equals(policy)) {
+            index = table.selectByLatency(mask);
+        } else {
+            String hashKey = resolveHashKey(url, invocation, policy);
+            index = null != hashKey ? table.selectByHash(hashKey, mask) : table.selectByWeight(mask);
+        }
+        return (Invoker<T>) table.getInvoker(index);
+    }
+
+    /**
+     * 选择表按服务缓存，基于目录中的全量 Invoker 构建，只有目录刷新导致实例集合变化时才重新构建，
+     * 路由得到的子集在同一张选择表上按掩码选择
+     */
+    private LoadBalanceTable getTable(List<? extends Invoker<?>> invokers, Invocation invocation) {
+        String serviceKey = StringUtils.defaultString(invokers.get(0).getUrl().getServiceKey());
+        List<? extends Invoker<?>> all = invokers;
+        Object source = null;
+        Directory<?> directory = invocation.getInvoker() instanceof ClusterInvoker
+                ? ((ClusterInvoker<?>) invocation.getInvoker()).getDirectory() : null;
+        if (invokers instanceof BitList) {
+            // 路由结果与目录共享同一个原始列表，目录刷新时原始列表随之替换
+            all = ((BitList<? extends Invoker<?>>) invokers).getOriginList();
+            source = all;
+        } else if (null != directory) {
+            all = directory.getAllInvokers();
+            source = all instanceof BitList ? ((BitList<?>) all).getOriginList() : all;
+        }
+        LoadBalanceTable table = tables.get(serviceKey);
+        if (null != table && table.isBuiltFrom(source)) {
+            return table;
+        }
+        List<? extends Invoker<?>> members = all;
+        Object membersSource = source;
+        long fingerprint = LoadBalanceTable.fingerprint(members);
+        return tables.compute(serviceKey, (key, previous) -> {
+            if (null != previous && previous.getFingerprint() == fingerprint) {
+                previous.setSource(membersSource, directory);
+                return previous;
+            }
+            LoadBalanceTable next = LoadBalanceTable.build(members, fingerprint);
+            next.setSource(membersSource, directory);
+            if (null != previous) {
+                next.takeOver(previous);
+            }
+            return next;
+        });
+    }
+
+    /**
+     * 移除目录已销毁的选择表并释放其引用的实例统计，避免已销毁的引用一直持有 Invoker
+     */
+    void evictObsolete() {
+        tables.forEach((serviceKey, table) -> {
+            if (table.isObsolete() && tables.remove(serviceKey, table)) {
+                table.release();
+                LOGGER.info("[POLARIS] evict loadbalance table of destroyed service " + serviceKey);
+            }
+        });
+    }
+
+    /**
+     * @return 一致性哈希使用的 key，未配置、显式指定加权随机或本次请求取不到值时返回 null
+     */
+    private String resolveHashKey(URL url, Invocation invocation, String policy) {
+        String methodName = invocation.getMethodName();
+        if (Consts.LB_POLICY_WEIGHTED_RANDOM.equals(policy)) {
+            return null;
+        }
+        String header = url.getMethodParameter(methodName, Consts.KEY_LB_HASH_HEADER);
+        if (StringUtils.isNotBlank(header)) {
+            String value = invocation.getAttachment(header);
+            if (StringUtils.isNotBlank(value)) {
+                return value;
+            }
+        }
+        String query = url.getMethodParameter(methodName, Consts.KEY_LB_HASH_QUERY);
+        if (StringUtils.isNotBlank(query)) {
+            Optional<String> value = queryAccessors.computeIfAbsent(query, parser::compile)
+                    .apply(invocation.getArguments());
+            if (value.isPresent() && StringUtils.isNotBlank(value.get())) {
+                return value.get();
+            }
+        }
+        return null;
+    }
+}
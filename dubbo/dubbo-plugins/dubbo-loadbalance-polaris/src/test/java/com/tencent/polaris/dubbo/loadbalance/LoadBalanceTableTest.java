@@ -0,0 +1,178 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.tencent.polaris.dubbo.loadbalance;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.Result;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LoadBalanceTableTest {
+
+    @Test
+    public void testSelectByWeightInSubset() {
+        List<TestInvoker> invokers = invokers(100, 100, 300, 100);
+        LoadBalanceTable table = LoadBalanceTable.build(invokers, LoadBalanceTable.fingerprint(invokers));
+        List<TestInvoker> subset = Arrays.asList(invokers.get(1), invokers.get(2));
+
+        int[] counts = new int[invokers.size()];
+        int total = 20000;
+        for (int i = 0; i < total; i++) {
+            counts[table.selectByWeight(table.mask(subset))]++;
+        }
+        Assert.assertEquals(0, counts[0]);
+        Assert.assertEquals(0, counts[3]);
+        // 子集内按 100:300 的权重比例选择
+        Assert.assertEquals(0.75, (double) counts[2] / total, 0.03);
+    }
+
+    @Test
+    public void testSelectByWeightZeroWeightSubset() {
+        List<TestInvoker> invokers = invokers(100, 0, 0);
+        LoadBalanceTable table = LoadBalanceTable.build(invokers, LoadBalanceTable.fingerprint(invokers));
+        List<TestInvoker> subset = Arrays.asList(invokers.get(1), invokers.get(2));
+
+        int[] counts = new int[invokers.size()];
+        for (int i = 0; i < 2000; i++) {
+            counts[table.selectByWeight(table.mask(subset))]++;
+        }
+        // 子集内权重全部为 0 时等概率选择
+        Assert.assertEquals(0, counts[0]);
+        Assert.assertTrue(counts[1] > 0);
+        Assert.assertTrue(counts[2] > 0);
+    }
+
+    @Test
+    public void testSelectByHashStickyOnSubsetChange() {
+        int[] weights = new int[10];
+        Arrays.fill(weights, 100);
+        List<TestInvoker> invokers = invokers(weights);
+        LoadBalanceTable table = LoadBalanceTable.build(invokers, LoadBalanceTable.fingerprint(invokers));
+        List<TestInvoker> subset = new ArrayList<>(invokers);
+        subset.remove(3);
+
+        int moved = 0;
+        for (int i = 0; i < 2000; i++) {
+            String key = "user-" + i;
+            int full = table.selectByHash(key, table.mask(invokers));
+            int partial = table.selectByHash(key, table.mask(subset));
+            if (full == 3) {
+                Assert.assertNotEquals(3, partial);
+                moved++;
+            } else {
+                // 只有落在被移除实例上的请求改变选择结果
+                Assert.assertEquals(full, partial);
+            }
+            Assert.assertEquals(full, table.selectByHash(key, table.mask(invokers)));
+        }
+        Assert.assertTrue(moved > 0);
+    }
+
+    @Test
+    public void testMaskAcrossWordBoundary() {
+        LoadBalanceTable.Mask mask = new LoadBalanceTable.Mask();
+        mask.reset(130);
+        int[] indexes = {0, 63, 64, 127, 128, 129};
+        for (int index : indexes) {
+            mask.set(index);
+        }
+        mask.set(64);
+
+        Assert.assertEquals(indexes.length, mask.count());
+        Assert.assertFalse(mask.isFull());
+        for (int n = 0; n < indexes.length; n++) {
+            Assert.assertEquals(indexes[n], mask.nth(n));
+            Assert.assertEquals(n, mask.rank(indexes[n]));
+        }
+        Assert.assertEquals(3, mask.rank(65));
+        Assert.assertEquals(4, mask.rank(128));
+        Assert.assertEquals(64, mask.next(64));
+        Assert.assertEquals(127, mask.next(65));
+        Assert.assertEquals(-1, mask.next(130));
+
+        // 复用时清空上次使用的全部字
+        mask.reset(70);
+        Assert.assertEquals(0, mask.count());
+        Assert.assertEquals(-1, mask.next(0));
+        mask.set(69);
+        Assert.assertEquals(69, mask.nth(0));
+        Assert.assertEquals(0, mask.rank(69));
+    }
+
+    @Test
+    public void testObsoleteWhenInvokersDestroyed() {
+        List<TestInvoker> invokers = invokers(100, 100);
+        LoadBalanceTable table = LoadBalanceTable.build(invokers, LoadBalanceTable.fingerprint(invokers));
+        Assert.assertFalse(table.isObsolete());
+
+        invokers.get(0).destroy();
+        Assert.assertFalse(table.isObsolete());
+        invokers.get(1).destroy();
+        Assert.assertTrue(table.isObsolete());
+    }
+
+    private static List<TestInvoker> invokers(int... weights) {
+        List<TestInvoker> invokers = new ArrayList<>();
+        for (int i = 0; i < weights.length; i++) {
+            invokers.add(new TestInvoker(URL.valueOf("dubbo://10.0.0." + (i + 1)
+                    + ":20880/com.example.DemoService?weight=" + weights[i])));
+        }
+        return invokers;
+    }
+
+    private static class TestInvoker implements Invoker<Object> {
+
+        private final URL url;
+
+        private volatile boolean destroyed;
+
+        TestInvoker(URL url) {
+            this.url = url;
+        }
+
+        @Override
+        public Class<Object> getInterface() {
+            return Object.class;
+        }
+
+        @Override
+        public Result invoke(Invocation invocation) {
+            return null;
+        }
+
+        @Override
+        public URL getUrl() {
+            return url;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return !destroyed;
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.dubbo.registry;
+
+import org.apache.dubbo.common.URL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 服务注册的异步执行器：提供者启动时导出的多个接口并行注册，并发数有上限。
+ * <p>
+ * 注册失败时按注册中心的 retry.period 持续重试，直到成功或被注销，与 FailbackRegistry 对注册失败的处理一致。
+ * FailbackRegistry 登记失败任务的方法是私有的，而异步注册的失败发生在 doRegister 返回之后，无法交给它重试，因此在这里按相同的间隔重试。
+ * 失败无法再抛给导出流程，因此只用于 check=false 的注册。
+ * <p>
+ * 一批注册全部完成后输出总耗时。
+ */
+class BulkRegistrar {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkRegistrar.class);
+
+    private final ThreadPoolExecutor executor;
+
+    private final ScheduledExecutorService retryTimer;
+
+    private final long retryPeriodMilli;
+
+    private final Map<URL, Registration> registrations = new ConcurrentHashMap<>();
+
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    private final AtomicInteger batchCount = new AtomicInteger();
+
+    private volatile long batchStartNanos;
+
+    BulkRegistrar(int concurrency, long retryPeriodMilli) {
+        AtomicInteger index = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "polaris-dubbo-register-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "polaris-dubbo-register-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.retryPeriodMilli = retryPeriodMilli;
+    }
+
+    /**
+     * 提交注册任务，同一个 URL 重复提交时以最后一次为准
+     *
+     * @param action    执行注册，失败时抛出异常
+     * @param onSuccess 注册成功后的回调
+     * @return 注册成功或被取消时完成的 future
+     */
+    CompletableFuture<Void> register(URL url, Runnable action, Runnable onSuccess) {
+        Registration registration = new Registration(url, action, onSuccess);
+        Registration previous = registrations.put(url, registration);
+        if (null != previous) {
+            previous.cancel();
+        }
+        if (inflight.getAndIncrement() == 0) {
+            batchStartNanos = System.nanoTime();
+            batchCount.set(0);
+        }
+        batchCount.incrementAndGet();
+        attempt(registration);
+        return registration.future;
+    }
+
+    /**
+     * 取消尚未成功的注册，并等待正在执行的注册请求结束，保证之后的注销不会先于注册到达服务端
+     */
+    void cancel(URL url) {
+        Registration registration = registrations.remove(url);
+        if (null == registration) {
+            return;
+        }
+        registration.cancel();
+        CompletableFuture<Void> running = registration.running;
+        if (null != running) {
+            try {
+                running.join();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return 尚未注册成功的 URL，其中可能有正在执行的注册请求
+     */
+    Set<URL> getPending() {
+        return new HashSet<>(registrations.keySet());
+    }
+
+    void close() {
+        for (Registration registration : registrations.values()) {
+            registration.cancel();
+        }
+        registrations.clear();
+        retryTimer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private void attempt(Registration registration) {
+        if (registration.future.isDone()) {
+            return;
+        }
+        CompletableFuture<Void> running = CompletableFuture.runAsync(registration.action, executor);
+        registration.running = running;
+        running.whenComplete((v, e) -> {
+            if (null == e) {
+                if (registration.future.complete(null)) {
+                    registration.onSuccess.run();
+                    registrations.remove(registration.url, registration);
+                    finish();
+                }
+                return;
+            }
+            if (registration.future.isDone()) {
+                return;
+            }
+            registration.retries++;
+            LOGGER.warn("[POLARIS] fail to register {} {} times, retry after {} ms", registration.url,
+                    registration.retries, retryPeriodMilli, e);
+            try {
+                retryTimer.schedule(() -> attempt(registration), retryPeriodMilli, TimeUnit.MILLISECONDS);
+            } catch (Exception ignored) {
+                // 已关闭
+            }
+        });
+    }
+
+    private void finish() {
+        int count = batchCount.get();
+        long costMilli = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStartNanos);
+        if (inflight.decrementAndGet() == 0) {
+            LOGGER.info("[POLARIS] {} registrations finished, total cost {} ms", count, costMilli);
+        }
+    }
+
+    private class Registration {
+
+        private final URL url;
+
+        private final Runnable action;
+
+        private final Runnable onSuccess;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private volatile CompletableFuture<Void> running;
+
+        /**
+         * 已经失败的次数，只在上一次注册结束后的回调中修改
+         */
+        private int retries;
+
+        Registration(URL url, Runnable action, Runnable onSuccess) {
+            this.url = url;
+            this.action = action;
+            this.onSuccess = onSuccess;
+        }
+
+        void cancel() {
+            if (future.complete(null)) {
+                finish();
+            }
+        }
+    }
+}
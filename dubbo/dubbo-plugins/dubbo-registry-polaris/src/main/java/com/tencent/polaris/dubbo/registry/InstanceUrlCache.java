@@ -0,0 +1,209 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.dubbo.registry;
+
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.api.pojo.StatusDimension;
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.common.metrics.MetricRegistry;
+import com.tencent.polaris.common.registry.SharedParameters;
+import com.tencent.polaris.common.utils.Consts;
+import com.tencent.polaris.common.utils.ConvertUtils;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.constants.CommonConstants;
+import org.apache.dubbo.rpc.cluster.Constants;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 某个订阅下实例到 Dubbo {@link URL} 的转换缓存，key 为实例 ID，实例版本号（revision）与熔断状态不变时直接复用已转换的 URL。
+ * <p>
+ * 每次服务变更只转换新增或发生变化的实例，已下线实例的缓存随之丢弃；未变化的实例复用同一个 URL 对象，
+ * Dubbo 目录可以据此直接复用已有的 Invoker。
+ * <p>
+ * 转换出的 URL 参数经过 {@link SharedParameters} 驻留，同一订阅下各实例相同的参数字符串只保存一份。
+ */
+class InstanceUrlCache {
+
+    private static final LongAdder CONVERTED = MetricRegistry.counter("polaris_dubbo_registry_url_converted_total");
+
+    private static final LongAdder REUSED = MetricRegistry.counter("polaris_dubbo_registry_url_reused_total");
+
+    private final String requireInterface;
+
+    private final SharedParameters sharedParameters = new SharedParameters();
+
+    private Map<String, CachedUrl> entries = Collections.emptyMap();
+
+    private List<URL> lastUrls = Collections.emptyList();
+
+    InstanceUrlCache(String requireInterface) {
+        this.requireInterface = requireInterface;
+    }
+
+    /**
+     * 转换实例列表，同一订阅的多次转换串行执行
+     */
+    synchronized Result convert(Instance[] instances) {
+        Map<String, CachedUrl> previous = entries;
+        int count = null == instances ? 0 : instances.length;
+        Map<String, CachedUrl> current = new HashMap<>(count * 4 / 3 + 1);
+        List<URL> urls = new ArrayList<>(count);
+        boolean changed = count != lastUrls.size();
+        for (int i = 0; i < count; i++) {
+            Instance instance = instances[i];
+            String key = StringUtils.isNotBlank(instance.getId()) ? instance.getId()
+                    : instance.getHost() + ":" + instance.getPort();
+            String circuitBreakers = circuitBreakersToString(instance);
+            CachedUrl cached = previous.get(key);
+            if (null != cached && cached.matches(instance, circuitBreakers)) {
+                REUSED.increment();
+            } else {
+                cached = new CachedUrl(instance, circuitBreakers, instanceToURL(instance, circuitBreakers));
+                CONVERTED.increment();
+            }
+            current.put(key, cached);
+            urls.add(cached.url);
+            if (!changed && lastUrls.get(i) != cached.url) {
+                changed = true;
+            }
+        }
+        entries = current;
+        lastUrls = Collections.unmodifiableList(urls);
+        return new Result(lastUrls, changed);
+    }
+
+    /**
+     * 没有熔断维度时无需序列化熔断状态，直接返回空字符串
+     */
+    private static String circuitBreakersToString(Instance instance) {
+        Collection<StatusDimension> statusDimensions = instance.getStatusDimensions();
+        if (null == statusDimensions || statusDimensions.isEmpty()) {
+            return "";
+        }
+        return ConvertUtils.circuitBreakersToString(instance);
+    }
+
+    private URL instanceToURL(Instance instance, String circuitBreakers) {
+        Map<String, String> newMetadata = new HashMap<>(instance.getMetadata());
+        boolean hasWeight = false;
+        newMetadata.put("interface", requireInterface);
+        if (newMetadata.containsKey(Constants.WEIGHT_KEY)) {
+            String weightStr = newMetadata.get(Constants.WEIGHT_KEY);
+            try {
+                int weightValue = Integer.parseInt(weightStr);
+                if (weightValue == instance.getWeight()) {
+                    hasWeight = true;
+                }
+            } catch (Exception ignored) {
+            }
+        }
+        if (!hasWeight) {
+            newMetadata.put(Constants.WEIGHT_KEY, Integer.toString(instance.getWeight()));
+        }
+        newMetadata.put(Consts.INSTANCE_KEY_ID, instance.getId());
+        newMetadata.put(Consts.INSTANCE_KEY_HEALTHY, Boolean.toString(instance.isHealthy()));
+        newMetadata.put(Consts.INSTANCE_KEY_ISOLATED, Boolean.toString(instance.isIsolated()));
+        newMetadata.put(Consts.INSTANCE_KEY_CIRCUIT_BREAKER, circuitBreakers);
+        putIfNotBlank(newMetadata, Consts.INSTANCE_KEY_REGION, instance.getRegion());
+        putIfNotBlank(newMetadata, Consts.INSTANCE_KEY_ZONE, instance.getZone());
+        putIfNotBlank(newMetadata, Consts.INSTANCE_KEY_CAMPUS, instance.getCampus());
+        Map<String, String> parameters = sharedParameters.intern(newMetadata);
+        return new URL(sharedParameters.intern(instance.getProtocol()),
+                sharedParameters.intern(instance.getHost()),
+                instance.getPort(),
+                parameters.get(CommonConstants.PATH_KEY),
+                parameters);
+    }
+
+    private static void putIfNotBlank(Map<String, String> metadata, String key, String value) {
+        if (StringUtils.isNotBlank(value)) {
+            metadata.put(key, value);
+        }
+    }
+
+    static class Result {
+
+        private final List<URL> urls;
+
+        private final boolean changed;
+
+        Result(List<URL> urls, boolean changed) {
+            this.urls = urls;
+            this.changed = changed;
+        }
+
+        List<URL> getUrls() {
+            return urls;
+        }
+
+        /**
+         * @return 与上一次转换的结果相比，URL 列表是否发生变化
+         */
+        boolean isChanged() {
+            return changed;
+        }
+    }
+
+    private static class CachedUrl {
+
+        private final String revision;
+
+        private final String host;
+
+        private final int port;
+
+        private final boolean healthy;
+
+        private final boolean isolated;
+
+        private final int weight;
+
+        private final String circuitBreakers;
+
+        private final URL url;
+
+        CachedUrl(Instance instance, String circuitBreakers, URL url) {
+            this.revision = instance.getRevision();
+            this.host = instance.getHost();
+            this.port = instance.getPort();
+            this.healthy = instance.isHealthy();
+            this.isolated = instance.isIsolated();
+            this.weight = instance.getWeight();
+            this.circuitBreakers = circuitBreakers;
+            this.url = url;
+        }
+
+        /**
+         * 版本号为空时无法判断元数据是否变化，不复用
+         */
+        boolean matches(Instance instance, String circuitBreakers) {
+            return StringUtils.isNotBlank(revision) && revision.equals(instance.getRevision())
+                    && port == instance.getPort() && healthy == instance.isHealthy()
+                    && isolated == instance.isIsolated() && weight == instance.getWeight()
+                    && Objects.equals(host, instance.getHost()) && this.circuitBreakers.equals(circuitBreakers);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.dubbo.registry;
+
+import com.tencent.polaris.api.exception.PolarisException;
+import com.tencent.polaris.common.utils.Consts;
+import org.apache.dubbo.common.constants.CommonConstants;
+import org.apache.dubbo.common.extension.Activate;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.Result;
+import org.apache.dubbo.rpc.RpcException;
+import org.apache.dubbo.rpc.cluster.filter.ClusterFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 开启 lazy_subscribe 时，在集群调用选址之前触发服务的订阅，首次调用同步完成实例拉取，并记录服务的最近调用时间。
+ * <p>
+ * 仅在消费者 URL 上带有 lazy_subscribe 参数时激活（如 dubbo.consumer.parameters.lazy_subscribe=true），
+ * 已完成订阅的服务在调用路径上只读取一次标记。
+ */
+@Activate(group = CommonConstants.CONSUMER, value = Consts.KEY_LAZY_SUBSCRIBE, order = Integer.MIN_VALUE)
+public class LazySubscribeFilter implements ClusterFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LazySubscribeFilter.class);
+
+    @Override
+    public Result invoke(Invoker<?> invoker, Invocation invocation) throws RpcException {
+        String service = invoker.getUrl().getServiceInterface();
+        try {
+            PolarisRegistry.onInvoke(service);
+        } catch (PolarisException e) {
+            // 订阅失败时继续调用，由集群调用按无可用实例处理
+            LOGGER.error("[POLARIS] fail to subscribe service {} on invocation: {}", service, e.toString());
+        }
+        return invoker.invoke(invocation);
+    }
+}
@@ -22,8 +22,9 @@ import com.tencent.polaris.api.listener.ServiceListener;
 import com.tencent.polaris.api.pojo.Instance;
 import com.tencent.polaris.api.pojo.ServiceChangeEvent;
 import com.tencent.polaris.api.utils.StringUtils;
-import com.tencent.polaris.common.utils.Consts;
-import com.tencent.polaris.common.utils.ConvertUtils;
+import com.tencent.polaris.common.registry.ChangeCoalescer;
+import com.tencent.polaris.common.registry.InstanceSnapshotStore;
+import com.tencent.polaris.common.registry.NotifyDispatcher;
 import com.tencent.polaris.common.registry.PolarisOperator;
 import com.tencent.polaris.common.registry.PolarisOperators;
 import org.apache.dubbo.common.URL;
@@ -38,35 +39,107 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.apache.dubbo.common.constants.RegistryConstants.CATEGORY_KEY;
 import static org.apache.dubbo.common.constants.RegistryConstants.DEFAULT_CATEGORY;
 import static org.apache.dubbo.common.constants.RegistryConstants.EMPTY_PROTOCOL;
+import static org.apache.dubbo.registry.Constants.DEFAULT_REGISTRY_RETRY_PERIOD;
+import static org.apache.dubbo.registry.Constants.REGISTRY_RETRY_PERIOD_KEY;
 
 public class PolarisRegistry extends FailbackRegistry {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PolarisRegistry.class);
 
+    private static final int MAX_DEREGISTER_THREADS = 64;
+
+    private static final Set<PolarisRegistry> LAZY_REGISTRIES = new CopyOnWriteArraySet<>();
+
+    /**
+     * 延迟订阅的服务 -> 是否已在所有延迟订阅的注册中心上完成订阅并记录了调用时间，为 true 时调用路径上不再做任何处理；
+     * 有新的延迟订阅或空闲检查后重置为 false，下一次调用重新订阅并记录调用时间
+     */
+    private static final Map<String, AtomicBoolean> LAZY_SERVICES = new ConcurrentHashMap<>();
+
     private final Set<URL> registeredInstances = new ConcurrentHashSet<>();
 
     private final AtomicBoolean destroyed = new AtomicBoolean(false);
 
-    private final Map<URL, Set<NotifyListener>> dubboListeners = new ConcurrentHashMap<>();
+    /**
+     * 按服务名共享的实例视图，同一服务的多个订阅只拉取、转换一次实例
+     */
+    private final Map<String, ServiceView> serviceViews = new ConcurrentHashMap<>();
 
-    private final Map<URL, ServiceListener> serviceListeners = new ConcurrentHashMap<>();
     private final PolarisOperator polarisOperator;
 
+    private final NotifyDispatcher notifyDispatcher;
+
+    private final ChangeCoalescer changeCoalescer;
+
+    /**
+     * check=false 的注册异步并行执行，未配置并发数时为 null，按原有方式同步注册
+     */
+    private final BulkRegistrar bulkRegistrar;
+
+    /**
+     * 实例列表的本地快照，未开启 warm_start 时为 null
+     */
+    private final InstanceSnapshotStore snapshotStore;
+
+    /**
+     * 开启 lazy_subscribe 时，订阅只记录 listener，首次调用时才拉取实例并监听变更
+     */
+    private final boolean lazySubscribe;
+
+    /**
+     * 定时取消空闲的延迟订阅，未配置空闲超时时为 null
+     */
+    private final ScheduledExecutorService idleChecker;
+
     public PolarisRegistry(URL url) {
         super(url);
         polarisOperator = PolarisOperators.loadOrStoreForGovernance(url.getHost(), url.getPort(), url.getParameters());
+        notifyDispatcher = new NotifyDispatcher("registry", polarisOperator.getPolarisConfig().getNotifyThreads());
+        changeCoalescer = new ChangeCoalescer(polarisOperator.getPolarisConfig().getNotifyCoalesceWindow(),
+                polarisOperator.getPolarisConfig().getNotifyCoalesceMaxDelay(), notifyDispatcher);
+        int registerConcurrency = polarisOperator.getPolarisConfig().getRegisterConcurrency();
+        bulkRegistrar = registerConcurrency > 0 ? new BulkRegistrar(registerConcurrency,
+                url.getParameter(REGISTRY_RETRY_PERIOD_KEY, DEFAULT_REGISTRY_RETRY_PERIOD)) : null;
+        String warmStartDir = polarisOperator.getPolarisConfig().getWarmStartDir();
+        snapshotStore = null == warmStartDir ? null
+                : new InstanceSnapshotStore(warmStartDir, polarisOperator.getPolarisConfig().getNamespace());
+        lazySubscribe = polarisOperator.getPolarisConfig().isLazySubscribeEnabled();
+        long idleTimeout = polarisOperator.getPolarisConfig().getLazySubscribeIdleTimeout();
+        if (lazySubscribe && idleTimeout > 0) {
+            idleChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "polaris-dubbo-lazy-subscribe");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(idleTimeout / 2, 1000);
+            idleChecker.scheduleWithFixedDelay(() -> unsubscribeIdle(idleTimeout), period, period,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            idleChecker = null;
+        }
+        if (lazySubscribe) {
+            LAZY_REGISTRIES.add(this);
+        }
     }
 
     @Override
@@ -81,8 +154,15 @@ public class PolarisRegistry extends FailbackRegistry {
         if (port > 0) {
             int weight = url.getParameter(Constants.WEIGHT_KEY, Constants.DEFAULT_WEIGHT);
             String version = url.getParameter(CommonConstants.VERSION_KEY, "1.0.0");
-            polarisOperator.register(url.getServiceInterface(), url.getHost(), port, url.getProtocol(), version, weight,
-                    metadata);
+            boolean groupedHeartbeat = polarisOperator.getPolarisConfig().isGroupedHeartbeatEnabled();
+            Runnable action = () -> polarisOperator.register(url.getServiceInterface(), url.getHost(), port,
+                    url.getProtocol(), version, weight, metadata, groupedHeartbeat);
+            if (null != bulkRegistrar && !isCheck(url)) {
+                // 失败时由 BulkRegistrar 按 retry.period 持续重试；check=true 时同步注册，失败抛给 FailbackRegistry 使启动失败
+                bulkRegistrar.register(url, action, () -> registeredInstances.add(url));
+                return;
+            }
+            action.run();
             registeredInstances.add(url);
         } else {
             LOGGER.warn("[POLARIS] skip register url {} for zero port value", url);
@@ -90,6 +170,13 @@ public class PolarisRegistry extends FailbackRegistry {
         }
     }
 
+    /**
+     * 与 FailbackRegistry 的判断一致：注册中心与提供者 URL 都未关闭 check 时，注册失败需要让导出失败
+     */
+    private boolean isCheck(URL url) {
+        return getUrl().getParameter(CommonConstants.CHECK_KEY, true) && url.getParameter(CommonConstants.CHECK_KEY, true);
+    }
+
     private boolean shouldRegister(URL url) {
         return StringUtils.equals(url.getSide(), CommonConstants.PROVIDER);
     }
@@ -99,8 +186,19 @@ public class PolarisRegistry extends FailbackRegistry {
         if (!shouldRegister(url)) {
             return;
         }
+        // 销毁时已经由 destroy 并行注销
+        if (destroyed.get()) {
+            return;
+        }
         LOGGER.info("[POLARIS] unregister service from polaris: {}", url);
+        deregister(url);
+    }
+
+    private void deregister(URL url) {
         int port = url.getPort();
+        if (null != bulkRegistrar) {
+            bulkRegistrar.cancel(url);
+        }
         if (port > 0) {
             polarisOperator.deregister(url.getServiceInterface(), url.getHost(), url.getPort());
             registeredInstances.remove(url);
@@ -110,71 +208,220 @@ public class PolarisRegistry extends FailbackRegistry {
     @Override
     public void destroy() {
         if (destroyed.compareAndSet(false, true)) {
+            // 先从北极星注销，让消费者尽快摘除本实例，再执行 Dubbo 的销毁流程
+            deregisterAll();
+            LAZY_REGISTRIES.remove(this);
+            if (null != idleChecker) {
+                idleChecker.shutdownNow();
+            }
             super.destroy();
-            Collection<URL> urls = Collections.unmodifiableCollection(registeredInstances);
-            for (URL url : urls) {
-                doUnregister(url);
+            changeCoalescer.close();
+            notifyDispatcher.close();
+            if (null != bulkRegistrar) {
+                bulkRegistrar.close();
             }
             polarisOperator.destroy();
         }
     }
 
+    /**
+     * 并行注销所有已注册以及正在注册的实例，整体等待不超过 deregister_timeout，超时未完成的实例输出到日志
+     */
+    private void deregisterAll() {
+        Set<URL> urls = new HashSet<>(registeredInstances);
+        if (null != bulkRegistrar) {
+            urls.addAll(bulkRegistrar.getPending());
+        }
+        if (urls.isEmpty()) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        long timeoutMilli = polarisOperator.getPolarisConfig().getDeregisterTimeout();
+        Set<URL> left = ConcurrentHashMap.newKeySet();
+        left.addAll(urls);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(urls.size(), MAX_DEREGISTER_THREADS), r -> {
+            Thread thread = new Thread(r, "polaris-dubbo-deregister");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<CompletableFuture<Void>> futures = new ArrayList<>(urls.size());
+        for (URL url : urls) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                deregister(url);
+                left.remove(url);
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(timeoutMilli, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException ignored) {
+            // 失败以及超时的实例在下面统一输出
+        } finally {
+            executor.shutdownNow();
+        }
+        long costMilli = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        if (left.isEmpty()) {
+            LOGGER.info("[POLARIS] deregister {} instances, cost {} ms", urls.size(), costMilli);
+        } else {
+            LOGGER.warn("[POLARIS] {} of {} instances not deregistered in {} ms: {}", left.size(), urls.size(),
+                    costMilli, left);
+        }
+    }
+
     @Override
     public void doSubscribe(URL url, NotifyListener listener) {
         String service = url.getServiceInterface();
-        Instance[] instances = polarisOperator.getAvailableInstances(service, true);
-        onInstances(url, listener, instances);
-        LOGGER.info("[POLARIS] submit watch task for service {}", service);
+        ServiceView view = serviceViews.computeIfAbsent(service, ServiceView::new);
+        // 通知在视图的锁内进行，保证同一服务的订阅与变更通知不会乱序
+        synchronized (view) {
+            view.addListener(url, listener);
+            if (lazySubscribe && !view.isActive()) {
+                // 延迟订阅：首次调用时再拉取实例并监听变更
+                LAZY_SERVICES.computeIfAbsent(service, key -> new AtomicBoolean()).set(false);
+                LOGGER.info("[POLARIS] defer subscription of service {} until first invocation", service);
+                return;
+            }
+            activate(view);
+            notifyUrls(url, listener, view.getUrls());
+        }
+    }
 
-        dubboListeners.computeIfAbsent(url, s -> new ConcurrentHashSet<>());
-        dubboListeners.get(url).add(listener);
+    /**
+     * 拉取实例并监听服务变更，已经订阅时直接使用内存中的实例，需要持有视图的锁调用
+     *
+     * @return 本次是否执行了订阅
+     */
+    private boolean activate(ServiceView view) {
+        String service = view.getService();
+        if (view.isActive()) {
+            LOGGER.debug("[POLARIS] serve instances of service {} from shared view", service);
+            return false;
+        }
+        Instance[] snapshot = null == snapshotStore ? null : snapshotStore.load(service);
+        if (null != snapshot) {
+            // 先使用本地快照通知，不阻塞在北极星上，再异步拉取最新实例进行对账
+            view.update(snapshot);
+            notifyDispatcher.execute(service, () -> refresh(view));
+        } else {
+            view.update(fetchInstances(service));
+        }
+        LOGGER.info("[POLARIS] update instances count: {}, service: {}", view.getUrls().size(), service);
+        ServiceListener serviceListener = new DubboServiceListener(view, this);
+        polarisOperator.watchService(service, serviceListener);
+        view.setServiceListener(serviceListener);
+        view.touch(System.currentTimeMillis());
+        LOGGER.info("[POLARIS] submit watch task for service {}", service);
+        return true;
+    }
 
-        serviceListeners.computeIfAbsent(url, dubboUrl -> {
-            ServiceListener serviceListener = new DubboServiceListener(url, this);
-            polarisOperator.watchService(service, serviceListener);
-            return serviceListener;
-        });
+    /**
+     * 服务被调用，由 {@link LazySubscribeFilter} 触发。延迟订阅的服务尚未订阅时同步完成订阅并通知所有订阅者，使本次调用即可获取到实例
+     */
+    static void onInvoke(String service) {
+        AtomicBoolean ready = LAZY_SERVICES.get(service);
+        if (null == ready || ready.get()) {
+            return;
+        }
+        // 先置位再订阅，订阅过程中被重置时下一次调用会再次处理
+        ready.set(true);
+        try {
+            for (PolarisRegistry registry : LAZY_REGISTRIES) {
+                registry.activateOnInvoke(service);
+            }
+        } catch (RuntimeException e) {
+            ready.set(false);
+            throw e;
+        }
     }
 
-    private void onInstances(URL url, NotifyListener listener, Instance[] instances) {
-        String requireInterface = url.getServiceInterface();
-        LOGGER.info("[POLARIS] update instances count: {}, service: {}", null == instances ? 0 : instances.length,
-                requireInterface);
-        List<URL> urls = new ArrayList<>();
-        if (null != instances) {
-            for (Instance instance : instances) {
-                urls.add(instanceToURL(requireInterface, instance));
+    private void activateOnInvoke(String service) {
+        ServiceView view = serviceViews.get(service);
+        if (null == view) {
+            return;
+        }
+        if (!view.isActive()) {
+            synchronized (view) {
+                if (view.hasListeners() && activate(view)) {
+                    view.forEachListener((url, listener) -> notifyUrls(url, listener, view.getUrls()));
+                }
             }
         }
-        notify(url, listener, toUrlWithEmpty(url, urls));
+        view.touch(System.currentTimeMillis());
     }
 
-    private static URL instanceToURL(String requireInterface, Instance instance) {
-        Map<String, String> newMetadata = new HashMap<>(instance.getMetadata());
-        boolean hasWeight = false;
-        newMetadata.put("interface", requireInterface);
-        if (newMetadata.containsKey(Constants.WEIGHT_KEY)) {
-            String weightStr = newMetadata.get(Constants.WEIGHT_KEY);
-            try {
-                int weightValue = Integer.parseInt(weightStr);
-                if (weightValue == instance.getWeight()) {
-                    hasWeight = true;
+    /**
+     * 取消超过 idleTimeout 毫秒未被调用的延迟订阅，并通知空列表让目录销毁对应的 Invoker，下次调用时重新订阅
+     */
+    private void unsubscribeIdle(long idleTimeout) {
+        for (ServiceView view : serviceViews.values()) {
+            if (!isIdle(view, idleTimeout)) {
+                continue;
+            }
+            synchronized (view) {
+                if (!isIdle(view, idleTimeout)) {
+                    continue;
+                }
+                try {
+                    polarisOperator.unwatchService(view.getService(), view.getServiceListener());
+                } catch (PolarisException e) {
+                    LOGGER.warn("[POLARIS] fail to unwatch service {}: {}", view.getService(), e.toString());
                 }
-            } catch (Exception ignored) {
+                view.reset();
+                view.forEachListener((url, listener) -> notifyUrls(url, listener, Collections.emptyList()));
+                LOGGER.info("[POLARIS] unsubscribe service {} idle for more than {} ms", view.getService(),
+                        idleTimeout);
             }
         }
-        if (!hasWeight) {
-            newMetadata.put(Constants.WEIGHT_KEY, Integer.toString(instance.getWeight()));
+        // 调用路径只在标记为 false 时记录调用时间，这里重置标记，使下一次检查之前的调用能被记录
+        for (ServiceView view : serviceViews.values()) {
+            AtomicBoolean ready = LAZY_SERVICES.get(view.getService());
+            if (null != ready) {
+                ready.set(false);
+            }
+        }
+    }
+
+    private static boolean isIdle(ServiceView view, long idleTimeout) {
+        return view.isActive() && System.currentTimeMillis() - view.getLastAccessMillis() >= idleTimeout;
+    }
+
+    private Instance[] fetchInstances(String service) {
+        Instance[] instances = polarisOperator.getAvailableInstances(service, true);
+        if (null != snapshotStore) {
+            snapshotStore.save(service, instances);
+        }
+        return instances;
+    }
+
+    /**
+     * 拉取最新实例并通知该服务的所有订阅者，转换后的 URL 列表与上一次完全相同时（如仅有不影响 URL 的变更）不再重复通知
+     */
+    private void refresh(ServiceView view) {
+        String service = view.getService();
+        try {
+            Instance[] instances = fetchInstances(service);
+            synchronized (view) {
+                if (null == view.getServiceListener()) {
+                    // 已经没有订阅者
+                    return;
+                }
+                InstanceUrlCache.Result result = view.update(instances);
+                if (!result.isChanged()) {
+                    LOGGER.debug("[POLARIS] instances of service {} unchanged, skip notify", service);
+                    return;
+                }
+                LOGGER.info("[POLARIS] update instances count: {}, service: {}", result.getUrls().size(), service);
+                view.forEachListener((url, listener) -> notifyUrls(url, listener, result.getUrls()));
+            }
+        } catch (PolarisException e) {
+            LOGGER.error("[POLARIS] fail to fetch instances for service {}: {}", service, e.toString());
         }
-        newMetadata.put(Consts.INSTANCE_KEY_ID, instance.getId());
-        newMetadata.put(Consts.INSTANCE_KEY_HEALTHY, Boolean.toString(instance.isHealthy()));
-        newMetadata.put(Consts.INSTANCE_KEY_ISOLATED, Boolean.toString(instance.isIsolated()));
-        newMetadata.put(Consts.INSTANCE_KEY_CIRCUIT_BREAKER, ConvertUtils.circuitBreakersToString(instance));
-        return new URL(instance.getProtocol(),
-                instance.getHost(),
-                instance.getPort(),
-                newMetadata.get(CommonConstants.PATH_KEY),
-                newMetadata);
+    }
+
+    private void notifyUrls(URL url, NotifyListener listener, List<URL> urls) {
+        // Dubbo 只读取通知列表并按 category 拷贝，可直接传入共享的不可变列表
+        notify(url, listener, toUrlWithEmpty(url, urls));
     }
 
     private List<URL> toUrlWithEmpty(URL providerUrl, List<URL> urls) {
@@ -184,7 +431,7 @@ public class PolarisRegistry extends FailbackRegistry {
                     .setProtocol(EMPTY_PROTOCOL)
                     .addParameter(CATEGORY_KEY, DEFAULT_CATEGORY)
                     .build();
-            urls.add(empty);
+            return Collections.singletonList(empty);
         }
         return urls;
     }
@@ -192,9 +439,16 @@ public class PolarisRegistry extends FailbackRegistry {
     @Override
     public void doUnsubscribe(URL url, NotifyListener listener) {
         LOGGER.info("[polaris] unsubscribe service: {}", url.toString());
-        ServiceListener serviceListener = serviceListeners.get(listener);
-        if (null != serviceListener) {
-            polarisOperator.unwatchService(url.getServiceInterface(), serviceListener);
+        String service = url.getServiceInterface();
+        ServiceView view = serviceViews.get(service);
+        if (null == view) {
+            return;
+        }
+        synchronized (view) {
+            if (view.removeListener(url, listener) && null != view.getServiceListener()) {
+                polarisOperator.unwatchService(service, view.getServiceListener());
+                view.reset();
+            }
         }
     }
 
@@ -205,29 +459,19 @@ public class PolarisRegistry extends FailbackRegistry {
 
     private static class DubboServiceListener implements ServiceListener {
 
-        private final URL url;
-
-        private final String service;
+        private final ServiceView view;
 
         private final PolarisRegistry registry;
 
-        private DubboServiceListener(URL url, PolarisRegistry registry) {
-            this.url = url;
-            this.service = url.getServiceInterface();
+        private DubboServiceListener(ServiceView view, PolarisRegistry registry) {
+            this.view = view;
             this.registry = registry;
         }
 
         @Override
         public void onEvent(ServiceChangeEvent serviceChangeEvent) {
-            try {
-                Set<NotifyListener> listeners = registry.dubboListeners.getOrDefault(url, Collections.emptySet());
-                Instance[] curInstances = registry.polarisOperator.getAvailableInstances(service, true);
-                for (NotifyListener listener : listeners) {
-                    registry.onInstances(url, listener, curInstances);
-                }
-            } catch (PolarisException e) {
-                LOGGER.error("[POLARIS] fail to fetch instances for service {}: {}", service, e.toString());
-            }
+            // 短时间内的多次变更合并为一次拉取与通知
+            registry.changeCoalescer.submit(view.getService(), view, () -> registry.refresh(view));
         }
     }
 }
@@ -20,26 +20,27 @@ import com.tencent.polaris.api.core.ConsumerAPI;
 import com.tencent.polaris.api.listener.ServiceListener;
 import com.tencent.polaris.api.pojo.Instance;
 import com.tencent.polaris.api.pojo.ServiceChangeEvent;
-import com.tencent.polaris.api.pojo.ServiceInfo;
 import com.tencent.polaris.api.rpc.UnWatchServiceRequest;
 import com.tencent.polaris.api.rpc.WatchServiceRequest;
 import com.tencent.polaris.api.utils.StringUtils;
 import com.tencent.polaris.common.context.Context;
+import com.tencent.polaris.common.registry.ChangeCoalescer;
+import com.tencent.polaris.common.registry.InstanceSnapshotStore;
+import com.tencent.polaris.common.registry.NotifyDispatcher;
 import com.tencent.polaris.common.registry.PolarisOperator;
 import com.tencent.polaris.common.registry.PolarisOperators;
+import com.tencent.polaris.common.registry.ServiceCatalog;
 import com.tencent.polaris.common.utils.Consts;
 import org.apache.dubbo.common.URL;
 import org.apache.dubbo.common.utils.CollectionUtils;
 import org.apache.dubbo.common.utils.ConcurrentHashSet;
 import org.apache.dubbo.registry.client.AbstractServiceDiscovery;
-import org.apache.dubbo.registry.client.DefaultServiceInstance;
 import org.apache.dubbo.registry.client.ServiceInstance;
 import org.apache.dubbo.registry.client.event.ServiceInstancesChangedEvent;
 import org.apache.dubbo.registry.client.event.listener.ServiceInstancesChangedListener;
 import org.apache.dubbo.rpc.model.ApplicationModel;
 import org.apache.dubbo.rpc.model.ScopeModelUtil;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -47,7 +48,6 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 public class PolarisServiceDiscovery extends AbstractServiceDiscovery {
 
@@ -59,10 +59,33 @@ public class PolarisServiceDiscovery extends AbstractServiceDiscovery {
 
     private Map<String, Set<ServiceInstancesChangedListener>> serviceListeners = new ConcurrentHashMap<>();
 
+    private final NotifyDispatcher notifyDispatcher;
+
+    private final ChangeCoalescer changeCoalescer;
+
+    /**
+     * 实例列表的本地快照，未开启 warm_start 时为 null；每个服务只在首次查询时使用快照
+     */
+    private final InstanceSnapshotStore snapshotStore;
+
+    private final Set<String> warmStartedServices = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, ServiceInstanceCache> instanceCaches = new ConcurrentHashMap<>();
+
+    private final ServiceCatalog serviceCatalog;
+
     public PolarisServiceDiscovery(ApplicationModel applicationModel, URL url) {
         super(applicationModel, url);
         this.operator = PolarisOperators.loadOrStoreForGovernance(url.getHost(), url.getPort(), url.getParameters());
         this.consumerAPI = operator.getConsumerAPI();
+        this.notifyDispatcher = new NotifyDispatcher("discovery", operator.getPolarisConfig().getNotifyThreads());
+        this.changeCoalescer = new ChangeCoalescer(operator.getPolarisConfig().getNotifyCoalesceWindow(),
+                operator.getPolarisConfig().getNotifyCoalesceMaxDelay(), notifyDispatcher);
+        String warmStartDir = operator.getPolarisConfig().getWarmStartDir();
+        this.snapshotStore = null == warmStartDir ? null
+                : new InstanceSnapshotStore(warmStartDir, operator.getPolarisConfig().getNamespace());
+        this.serviceCatalog = new ServiceCatalog(operator::getServicesResponse,
+                operator.getPolarisConfig().getServiceCatalogMaxStaleness());
     }
 
     @Override
@@ -98,33 +121,66 @@ public class PolarisServiceDiscovery extends AbstractServiceDiscovery {
 
     @Override
     protected void doDestroy() throws Exception {
+        serviceCatalog.close();
+        changeCoalescer.close();
+        notifyDispatcher.close();
         operator.destroy();
     }
 
     @Override
     public Set<String> getServices() {
-        return operator.getServices().stream().map(ServiceInfo::getService).collect(Collectors.toSet());
+        return serviceCatalog.getServices();
     }
 
     @Override
     public List<ServiceInstance> getInstances(String serviceName) throws NullPointerException {
-        Instance[] instances = operator.getAvailableInstances(serviceName, true);
+        Instance[] instances = null;
+        if (null != snapshotStore && warmStartedServices.add(serviceName)) {
+            instances = snapshotStore.load(serviceName);
+            if (null != instances) {
+                // 先返回本地快照，不阻塞在北极星上，再异步拉取最新实例通知监听器进行对账
+                changeCoalescer.submit(serviceName, serviceName, () -> refresh(serviceName));
+            }
+        }
+        if (null == instances) {
+            instances = fetchInstances(serviceName);
+        }
         if (Objects.isNull(instances) || instances.length == 0) {
             return Collections.emptyList();
         }
-        List<ServiceInstance> ret = new ArrayList<>(instances.length);
-        for (Instance instance : instances) {
-            DefaultServiceInstance serviceInstance =
-                    new DefaultServiceInstance(
-                            instance.getService(),
-                            instance.getHost(), instance.getPort(),
-                            ScopeModelUtil.getApplicationModel(registryURL.getScopeModel()));
-            serviceInstance.setMetadata(instance.getMetadata());
-            serviceInstance.setEnabled(!instance.isIsolated());
-            serviceInstance.setHealthy(instance.isHealthy());
-            ret.add(serviceInstance);
+        return getInstanceCache(serviceName).convert(instances);
+    }
+
+    private Instance[] fetchInstances(String serviceName) {
+        Instance[] instances = operator.getAvailableInstances(serviceName, true);
+        if (null != snapshotStore) {
+            snapshotStore.save(serviceName, instances);
+        }
+        return instances;
+    }
+
+    private ServiceInstanceCache getInstanceCache(String serviceName) {
+        return instanceCaches.computeIfAbsent(serviceName,
+                name -> new ServiceInstanceCache(ScopeModelUtil.getApplicationModel(registryURL.getScopeModel())));
+    }
+
+    private void refresh(String serviceName) {
+        // 注意，这里不能走 Event 里面的服务数据列表，必须要走 ConsumerAPI 重新走正常的 Router 能力过滤掉隔离、权重为0的实例
+        Instance[] instances = fetchInstances(serviceName);
+        if (Objects.isNull(instances) || instances.length == 0) {
+            return;
+        }
+        ServiceInstanceCache instanceCache = getInstanceCache(serviceName);
+        List<ServiceInstance> serviceInstances = instanceCache.convert(instances);
+        // 与上一次通知的实例完全相同（如仅有不影响实例的变更）时不再发出事件
+        if (!instanceCache.markNotified(serviceInstances)) {
+            return;
         }
-        return ret;
+
+        Set<ServiceInstancesChangedListener> listeners = serviceListeners.getOrDefault(serviceName, Collections.emptySet());
+
+        ServiceInstancesChangedEvent changedEvent = new ServiceInstancesChangedEvent(serviceName, serviceInstances);
+        listeners.forEach(listener -> listener.onEvent(changedEvent));
     }
 
     @Override
@@ -166,6 +222,7 @@ public class PolarisServiceDiscovery extends AbstractServiceDiscovery {
             listeners.remove(listener);
             if (CollectionUtils.isEmpty(listeners)) {
                 serviceListeners.remove(service);
+                instanceCaches.remove(service);
 
                 ServiceListener serviceListener = listenerMap.remove(service);
                 if (Objects.nonNull(serviceListener)) {
@@ -191,29 +248,8 @@ public class PolarisServiceDiscovery extends AbstractServiceDiscovery {
 
         @Override
         public void onEvent(ServiceChangeEvent event) {
-            String serviceName = event.getServiceKey().getService();
-            // 注意，这里不能走 Event 里面的服务数据列表，必须要走 ConsumerAPI 重新走正常的 Router 能力过滤掉隔离、权重为0的实例
-            Instance[] instances = operator.getAvailableInstances(serviceName, true);
-            if (Objects.isNull(instances) || instances.length == 0) {
-                return;
-            }
-            List<ServiceInstance> serviceInstances = new ArrayList<>(instances.length);
-            for (Instance instance : instances) {
-                DefaultServiceInstance serviceInstance =
-                        new DefaultServiceInstance(
-                                instance.getService(),
-                                instance.getHost(), instance.getPort(),
-                                ScopeModelUtil.getApplicationModel(registryURL.getScopeModel()));
-                serviceInstance.setMetadata(instance.getMetadata());
-                serviceInstance.setEnabled(!instance.isIsolated());
-                serviceInstance.setHealthy(instance.isHealthy());
-                serviceInstances.add(serviceInstance);
-            }
-
-            Set<ServiceInstancesChangedListener> listeners = serviceListeners.getOrDefault(service, Collections.emptySet());
-
-            ServiceInstancesChangedEvent changedEvent = new ServiceInstancesChangedEvent(serviceName, serviceInstances);
-            listeners.forEach(listener -> listener.onEvent(changedEvent));
+            // 短时间内的多次变更合并为一次拉取与通知
+            changeCoalescer.submit(service, service, () -> refresh(service));
         }
     }
 }
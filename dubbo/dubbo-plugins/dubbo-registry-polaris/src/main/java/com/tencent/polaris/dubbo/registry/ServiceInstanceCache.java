@@ -0,0 +1,140 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.dubbo.registry;
+
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.common.metrics.MetricRegistry;
+import org.apache.dubbo.registry.client.DefaultServiceInstance;
+import org.apache.dubbo.registry.client.ServiceInstance;
+import org.apache.dubbo.rpc.model.ApplicationModel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 应用级服务发现中某个服务的实例到 {@link ServiceInstance} 的转换缓存，key 为实例 ID，实例版本号（revision）与健康、隔离状态不变时复用同一个对象。
+ * <p>
+ * Dubbo 按 {@link ServiceInstance} 的元数据版本拉取元数据并构建地址 URL，复用未变化的对象后，
+ * 每次变更的开销只与变化的实例数相关；实例列表与上一次通知完全相同时不再发出变更事件。
+ */
+class ServiceInstanceCache {
+
+    private static final LongAdder CONVERTED = MetricRegistry.counter("polaris_dubbo_discovery_instance_converted_total");
+
+    private static final LongAdder REUSED = MetricRegistry.counter("polaris_dubbo_discovery_instance_reused_total");
+
+    private final ApplicationModel applicationModel;
+
+    private Map<String, CachedInstance> entries = Collections.emptyMap();
+
+    private List<ServiceInstance> lastNotified = Collections.emptyList();
+
+    ServiceInstanceCache(ApplicationModel applicationModel) {
+        this.applicationModel = applicationModel;
+    }
+
+    /**
+     * 转换实例列表，同一服务的多次转换串行执行
+     */
+    synchronized List<ServiceInstance> convert(Instance[] instances) {
+        Map<String, CachedInstance> previous = entries;
+        int count = null == instances ? 0 : instances.length;
+        Map<String, CachedInstance> current = new HashMap<>(count * 4 / 3 + 1);
+        List<ServiceInstance> serviceInstances = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Instance instance = instances[i];
+            String key = StringUtils.isNotBlank(instance.getId()) ? instance.getId()
+                    : instance.getHost() + ":" + instance.getPort();
+            CachedInstance cached = previous.get(key);
+            if (null != cached && cached.matches(instance)) {
+                REUSED.increment();
+            } else {
+                cached = new CachedInstance(instance, toServiceInstance(instance));
+                CONVERTED.increment();
+            }
+            current.put(key, cached);
+            serviceInstances.add(cached.serviceInstance);
+        }
+        entries = current;
+        return serviceInstances;
+    }
+
+    /**
+     * 记录即将通知给监听器的实例列表
+     *
+     * @return 与上一次通知的列表相比是否发生变化，未变化时无需通知
+     */
+    synchronized boolean markNotified(List<ServiceInstance> serviceInstances) {
+        boolean changed = serviceInstances.size() != lastNotified.size();
+        for (int i = 0; !changed && i < serviceInstances.size(); i++) {
+            changed = serviceInstances.get(i) != lastNotified.get(i);
+        }
+        if (changed) {
+            lastNotified = Collections.unmodifiableList(serviceInstances);
+        }
+        return changed;
+    }
+
+    private ServiceInstance toServiceInstance(Instance instance) {
+        DefaultServiceInstance serviceInstance = new DefaultServiceInstance(instance.getService(), instance.getHost(),
+                instance.getPort(), applicationModel);
+        serviceInstance.setMetadata(instance.getMetadata());
+        serviceInstance.setEnabled(!instance.isIsolated());
+        serviceInstance.setHealthy(instance.isHealthy());
+        return serviceInstance;
+    }
+
+    private static class CachedInstance {
+
+        private final String revision;
+
+        private final String host;
+
+        private final int port;
+
+        private final boolean healthy;
+
+        private final boolean isolated;
+
+        private final ServiceInstance serviceInstance;
+
+        CachedInstance(Instance instance, ServiceInstance serviceInstance) {
+            this.revision = instance.getRevision();
+            this.host = instance.getHost();
+            this.port = instance.getPort();
+            this.healthy = instance.isHealthy();
+            this.isolated = instance.isIsolated();
+            this.serviceInstance = serviceInstance;
+        }
+
+        /**
+         * 版本号为空时无法判断元数据是否变化，不复用
+         */
+        boolean matches(Instance instance) {
+            return StringUtils.isNotBlank(revision) && revision.equals(instance.getRevision())
+                    && port == instance.getPort() && healthy == instance.isHealthy()
+                    && isolated == instance.isIsolated() && Objects.equals(host, instance.getHost());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.dubbo.registry;
+
+import com.tencent.polaris.api.listener.ServiceListener;
+import com.tencent.polaris.api.pojo.Instance;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.registry.NotifyListener;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * 某个服务在注册中心内的实例视图：实例只拉取、转换一次，由订阅该服务的所有 {@link NotifyListener} 只读共享。
+ * <p>
+ * 同一接口的多个引用（不同分组、版本）不再各自拉取与转换实例，后续的订阅直接从内存中同步获取。
+ * 除 {@link #getService()}、{@link #isActive()} 与 {@link #touch(long)} 外的方法都需要持有该对象的锁调用。
+ */
+class ServiceView {
+
+    private final String service;
+
+    private final InstanceUrlCache urlCache;
+
+    private final Map<URL, Set<NotifyListener>> listeners = new HashMap<>();
+
+    /**
+     * 尚未拉取实例，或者已经没有订阅者时为 null
+     */
+    private List<URL> urls;
+
+    /**
+     * 已经拉取实例并监听变更时不为 null，延迟订阅尚未被调用或已经空闲取消时为 null
+     */
+    private volatile ServiceListener serviceListener;
+
+    private volatile long lastAccessMillis;
+
+    ServiceView(String service) {
+        this.service = service;
+        this.urlCache = new InstanceUrlCache(service);
+    }
+
+    String getService() {
+        return service;
+    }
+
+    List<URL> getUrls() {
+        return urls;
+    }
+
+    InstanceUrlCache.Result update(Instance[] instances) {
+        InstanceUrlCache.Result result = urlCache.convert(instances);
+        urls = result.getUrls();
+        return result;
+    }
+
+    void addListener(URL url, NotifyListener listener) {
+        listeners.computeIfAbsent(url, key -> new LinkedHashSet<>()).add(listener);
+    }
+
+    /**
+     * @return 移除后是否已经没有任何订阅者
+     */
+    boolean removeListener(URL url, NotifyListener listener) {
+        Set<NotifyListener> urlListeners = listeners.get(url);
+        if (null != urlListeners && urlListeners.remove(listener) && urlListeners.isEmpty()) {
+            listeners.remove(url);
+        }
+        return listeners.isEmpty();
+    }
+
+    boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    void forEachListener(BiConsumer<URL, NotifyListener> consumer) {
+        for (Map.Entry<URL, Set<NotifyListener>> entry : listeners.entrySet()) {
+            for (NotifyListener listener : entry.getValue()) {
+                consumer.accept(entry.getKey(), listener);
+            }
+        }
+    }
+
+    boolean isActive() {
+        return null != serviceListener;
+    }
+
+    /**
+     * 记录最近一次调用的时间，精确到秒即可，避免每次调用都写入
+     */
+    void touch(long nowMillis) {
+        if (nowMillis - lastAccessMillis >= 1000) {
+            lastAccessMillis = nowMillis;
+        }
+    }
+
+    long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+
+    ServiceListener getServiceListener() {
+        return serviceListener;
+    }
+
+    void setServiceListener(ServiceListener serviceListener) {
+        this.serviceListener = serviceListener;
+    }
+
+    /**
+     * 没有订阅者后不再监听服务变更，丢弃已拉取的实例，下次订阅时重新拉取
+     */
+    void reset() {
+        serviceListener = null;
+        urls = null;
+    }
+}
@@ -18,13 +18,12 @@
 package com.tencent.polaris.dubbo.report;
 
 
-import com.tencent.polaris.api.pojo.RetStatus;
-import com.tencent.polaris.api.utils.StringUtils;
-import com.tencent.polaris.circuitbreak.client.exception.CallAbortedException;
-import com.tencent.polaris.common.exception.PolarisBlockException;
+import com.tencent.polaris.common.loadbalance.InstanceStats;
+import com.tencent.polaris.common.loadbalance.InstanceStatsRegistry;
 import com.tencent.polaris.common.registry.DubboServiceInfo;
 import com.tencent.polaris.common.registry.PolarisOperator;
 import com.tencent.polaris.common.registry.PolarisOperatorDelegate;
+import com.tencent.polaris.common.report.GovernanceContext;
 import com.tencent.polaris.common.utils.DubboUtils;
 import org.apache.dubbo.common.URL;
 import org.apache.dubbo.common.constants.CommonConstants;
@@ -44,8 +43,6 @@ import java.util.List;
 @Activate(group = CommonConstants.CONSUMER, order = Integer.MIN_VALUE)
 public class ReportFilter extends PolarisOperatorDelegate implements Filter, Filter.Listener {
 
-    private static final String LABEL_START_TIME = "reporter_filter_start_time";
-
     private static final Logger LOGGER = LoggerFactory.getLogger(ReportFilter.class);
 
     private ApplicationModel applicationModel;
@@ -56,67 +53,46 @@ public class ReportFilter extends PolarisOperatorDelegate implements Filter, Fil
 
     @Override
     public Result invoke(Invoker<?> invoker, Invocation invocation) throws RpcException {
-        invocation.put(LABEL_START_TIME, System.currentTimeMillis());
+        // 治理上下文与熔断过滤器共享，调用开始时只计时一次
+        GovernanceContext context = GovernanceContext.create(invocation, true);
+        // 实例被延迟感知的负载均衡引用时，同时记录在途请求数与纳秒级耗时
+        InstanceStats stats = InstanceStatsRegistry.get(invoker.getUrl().getAddress());
+        if (null != stats) {
+            context.attachInstanceStats(stats);
+        }
         return invoker.invoke(invocation);
     }
 
     @Override
     public void onResponse(Result appResponse, Invoker<?> invoker, Invocation invocation) {
-        PolarisOperator polarisOperator = getGovernancePolarisOperator();
-        if (null == polarisOperator) {
+        GovernanceContext context = GovernanceContext.get(invocation);
+        if (null == context) {
             return;
         }
-        Long startTimeMilli = (Long) invocation.get(LABEL_START_TIME);
-        RetStatus retStatus = RetStatus.RetSuccess;
-        int code = 0;
-        if (appResponse.hasException()) {
-            retStatus = RetStatus.RetFail;
-            code = -1;
-        }
-        URL providerUrl = invoker.getUrl();
-        // 判断是否是应用级注册
-        long delay = System.currentTimeMillis() - startTimeMilli;
-        List<DubboServiceInfo> serviceInfos = DubboUtils.analyzeRemoteDubboServiceInfo(invoker, invocation);
-        DubboServiceInfo dubboServiceInfo = serviceInfos.get(0);
-        polarisOperator.reportInvokeResult(dubboServiceInfo.getService(), dubboServiceInfo.getReportMethodName(), providerUrl.getHost(),
-                providerUrl.getPort(), RpcContext.getServiceContext().getLocalHost(), delay, retStatus, code);
+        context.onResponse(appResponse);
+        report(context, invoker, invocation);
     }
 
     @Override
     public void onError(Throwable t, Invoker<?> invoker, Invocation invocation) {
+        GovernanceContext context = GovernanceContext.get(invocation);
+        if (null == context) {
+            return;
+        }
+        context.onError(t);
+        report(context, invoker, invocation);
+    }
+
+    private void report(GovernanceContext context, Invoker<?> invoker, Invocation invocation) {
         PolarisOperator polarisOperator = getGovernancePolarisOperator();
         if (null == polarisOperator) {
             return;
         }
-        Long startTimeMilli = (Long) invocation.get(LABEL_START_TIME);
-        RetStatus retStatus = RetStatus.RetFail;
-        int code = -1;
-        if (t instanceof RpcException) {
-            RpcException rpcException = (RpcException) t;
-            code = rpcException.getCode();
-            if (isFlowControl(rpcException)) {
-                retStatus = RetStatus.RetFlowControl;
-            }
-            if (rpcException.isTimeout()) {
-                retStatus = RetStatus.RetTimeout;
-            }
-            if (rpcException.getCause() instanceof CallAbortedException) {
-                retStatus = RetStatus.RetReject;
-            }
-        }
         URL url = invoker.getUrl();
-        long delay = System.currentTimeMillis() - startTimeMilli;
         List<DubboServiceInfo> serviceInfos = DubboUtils.analyzeRemoteDubboServiceInfo(invoker, invocation);
         DubboServiceInfo dubboServiceInfo = serviceInfos.get(0);
-        polarisOperator.reportInvokeResult(dubboServiceInfo.getService(), dubboServiceInfo.getReportMethodName(), url.getHost(),
-                url.getPort(), RpcContext.getServiceContext().getLocalHost(), delay, retStatus, code);
-    }
-
-    private boolean isFlowControl(RpcException rpcException) {
-        boolean a = StringUtils.isNotBlank(rpcException.getMessage()) && rpcException.getMessage()
-                .contains(PolarisBlockException.PREFIX);
-        boolean b = rpcException.isLimitExceed();
-        return a || b;
+        polarisOperator.reportInvokeContext(context, dubboServiceInfo.getService(), dubboServiceInfo.getReportMethodName(),
+                url.getHost(), url.getPort(), RpcContext.getServiceContext().getLocalHost());
     }
 
 }
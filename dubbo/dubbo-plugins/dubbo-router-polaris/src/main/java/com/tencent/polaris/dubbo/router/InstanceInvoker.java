@@ -45,8 +45,18 @@ public class InstanceInvoker<T> implements Instance, Invoker<T> {
 
     private final DefaultInstance defaultInstance;
 
+    /**
+     * 在 BitList 原始列表中的下标，非 StateRouter 场景下为 -1
+     */
+    private final int index;
+
     public InstanceInvoker(Invoker<T> invoker, DubboServiceInfo serviceInfo, String namespace) {
+        this(invoker, serviceInfo, namespace, -1);
+    }
+
+    public InstanceInvoker(Invoker<T> invoker, DubboServiceInfo serviceInfo, String namespace, int index) {
         this.invoker = invoker;
+        this.index = index;
         defaultInstance = new DefaultInstance();
         defaultInstance.setNamespace(namespace);
         URL url = invoker.getUrl();
@@ -59,9 +69,29 @@ public class InstanceInvoker<T> implements Instance, Invoker<T> {
         defaultInstance.setVersion(url.getParameter(CommonConstants.VERSION_KEY));
         defaultInstance.setWeight(url.getParameter(Constants.WEIGHT_KEY, 100));
         defaultInstance.setMetadata(url.getParameters());
+        // 优先使用北极星实例的地域信息，其次使用提供者以元数据方式注册的地域信息
+        defaultInstance.setRegion(getLocality(url, Consts.INSTANCE_KEY_REGION, Consts.METADATA_KEY_REGION));
+        defaultInstance.setZone(getLocality(url, Consts.INSTANCE_KEY_ZONE, Consts.METADATA_KEY_ZONE));
+        defaultInstance.setCampus(getLocality(url, Consts.INSTANCE_KEY_CAMPUS, Consts.METADATA_KEY_CAMPUS));
         LOGGER.debug("[POLARIS] construct instance from invoker, url {}, instance {}", url, defaultInstance);
     }
 
+    private static String getLocality(URL url, String internalKey, String metadataKey) {
+        String value = url.getParameter(internalKey);
+        if (null == value || value.isEmpty()) {
+            value = url.getParameter(metadataKey, "");
+        }
+        return value;
+    }
+
+    public Invoker<T> getInvoker() {
+        return invoker;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
     @Override
     public Class<T> getInterface() {
         return invoker.getInterface();
@@ -0,0 +1,177 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.tencent.polaris.dubbo.router;
+
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.common.registry.CircuitBreakerStatusIndex;
+import com.tencent.polaris.common.registry.DubboServiceInfo;
+import com.tencent.polaris.common.router.LocalityPartitions;
+import com.tencent.polaris.common.router.MetadataIndex;
+import com.tencent.polaris.common.utils.DubboUtils;
+import org.apache.dubbo.rpc.Invoker;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按 Polaris 服务名缓存 Invoker 对应的 {@link InstanceInvoker}、元数据索引及就近路由的地域划分。
+ * 仅在目录推送新的 Invoker 列表时（Router#notify）重建，路由调用路径上只做查找，不再重复创建包装对象；
+ * 重建时将各服务的实例登记到熔断状态索引，由其在后台检查熔断状态。
+ */
+class InstanceInvokerCache {
+
+    private final String namespace;
+
+    private final CircuitBreakerStatusIndex statusIndex;
+
+    /**
+     * 最近一次目录推送的完整 Invoker 列表
+     */
+    private volatile List<Invoker<?>> notified = Collections.emptyList();
+
+    private volatile Map<String, ServiceInvokers> services = new ConcurrentHashMap<>();
+
+    InstanceInvokerCache(String namespace, CircuitBreakerStatusIndex statusIndex) {
+        this.namespace = namespace;
+        this.statusIndex = statusIndex;
+    }
+
+    /**
+     * 目录推送了新的 Invoker 列表，按服务重建，保留仍然存在的 Invoker 的包装对象，丢弃已经下线的
+     */
+    <T> void refresh(List<Invoker<T>> invokers) {
+        List<Invoker<?>> current = new ArrayList<>(invokers);
+        Set<String> serviceNames = new LinkedHashSet<>();
+        for (Invoker<T> invoker : invokers) {
+            serviceNames.addAll(DubboUtils.analyzeRemoteServices(invoker));
+        }
+        Map<String, ServiceInvokers> previous = services;
+        Map<String, ServiceInvokers> next = new ConcurrentHashMap<>(serviceNames.size());
+        for (String service : serviceNames) {
+            String key = StringUtils.defaultString(service);
+            next.put(key, build(key, current, previous.get(key)));
+        }
+        notified = current;
+        services = next;
+    }
+
+    /**
+     * 获取服务对应的包装对象与元数据索引
+     */
+    ServiceInvokers getServiceInvokers(DubboServiceInfo serviceInfo) {
+        String service = StringUtils.defaultString(serviceInfo.getService());
+        Map<String, ServiceInvokers> current = services;
+        ServiceInvokers serviceInvokers = current.get(service);
+        if (null == serviceInvokers) {
+            // 服务名均在目录推送时预先计算，这里只是兜底
+            serviceInvokers = current.computeIfAbsent(service, key -> build(key, notified, null));
+        }
+        return serviceInvokers;
+    }
+
+    private ServiceInvokers build(String service, List<Invoker<?>> invokers, ServiceInvokers previous) {
+        DubboServiceInfo serviceInfo = DubboServiceInfo.builder().service(service).build();
+        Map<Invoker<?>, InstanceInvoker<?>> wrappers = new ConcurrentHashMap<>(invokers.size());
+        List<Instance> instances = new ArrayList<>(invokers.size());
+        for (Invoker<?> invoker : invokers) {
+            InstanceInvoker<?> wrapper = null == previous ? null : previous.wrappers.get(invoker);
+            if (null == wrapper) {
+                wrapper = new InstanceInvoker<>(invoker, serviceInfo, namespace);
+            }
+            wrappers.put(invoker, wrapper);
+            instances.add(wrapper);
+        }
+        ServiceInvokers serviceInvokers = new ServiceInvokers(serviceInfo, wrappers, instances);
+        if (null != statusIndex && !instances.isEmpty()) {
+            statusIndex.watch(this, service, serviceInvokers.instances);
+        }
+        return serviceInvokers;
+    }
+
+    class ServiceInvokers {
+
+        private final DubboServiceInfo serviceInfo;
+
+        private final Map<Invoker<?>, InstanceInvoker<?>> wrappers;
+
+        /**
+         * 目录推送的完整列表对应的包装对象，顺序与推送的列表一致
+         */
+        private final List<Instance> instances;
+
+        /**
+         * 完整列表对应的元数据索引，尚未收到推送时为 null
+         */
+        private final MetadataIndex index;
+
+        /**
+         * 完整列表按地域、可用区的划分，尚未收到推送时为 null
+         */
+        private final LocalityPartitions locality;
+
+        ServiceInvokers(DubboServiceInfo serviceInfo, Map<Invoker<?>, InstanceInvoker<?>> wrappers,
+                        List<Instance> instances) {
+            this.serviceInfo = serviceInfo;
+            this.wrappers = wrappers;
+            this.instances = Collections.unmodifiableList(instances);
+            this.index = instances.isEmpty() ? null : new MetadataIndex(instances);
+            this.locality = instances.isEmpty() ? null : new LocalityPartitions(instances);
+        }
+
+        /**
+         * 获取路由前的 Invoker 对应的包装对象
+         */
+        List<Instance> getInstances(List<? extends Invoker<?>> invokers) {
+            List<Instance> result = new ArrayList<>(invokers.size());
+            for (Invoker<?> invoker : invokers) {
+                InstanceInvoker<?> wrapper = wrappers.get(invoker);
+                if (null == wrapper) {
+                    wrapper = wrappers.computeIfAbsent(invoker,
+                            key -> new InstanceInvoker<>(key, serviceInfo, namespace));
+                }
+                result.add(wrapper);
+            }
+            return result;
+        }
+
+        MetadataIndex getMetadataIndex() {
+            return index;
+        }
+
+        /**
+         * 就近路由：在路由结果中依次选取与本地同可用区、同地域的实例，都没有或结果不属于完整列表时返回原结果
+         */
+        List<Instance> routeByLocality(List<Instance> routed, String level, String region, String zone) {
+            if (StringUtils.isBlank(level) || null == index) {
+                return routed;
+            }
+            BitSet bitSet = index.toBitSet(routed);
+            if (null == bitSet) {
+                return routed;
+            }
+            BitSet result = locality.select(bitSet, level, region, zone);
+            return result == bitSet ? routed : index.toInstances(result);
+        }
+    }
+}
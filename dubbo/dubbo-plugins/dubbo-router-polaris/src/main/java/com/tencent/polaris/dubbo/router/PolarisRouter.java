@@ -20,12 +20,13 @@ package com.tencent.polaris.dubbo.router;
 import com.tencent.polaris.api.pojo.Instance;
 import com.tencent.polaris.api.pojo.RouteArgument;
 import com.tencent.polaris.api.pojo.ServiceEventKey.EventType;
-import com.tencent.polaris.api.pojo.ServiceRule;
-import com.tencent.polaris.api.utils.StringUtils;
 import com.tencent.polaris.common.parser.QueryParser;
+import com.tencent.polaris.common.registry.CircuitBreakerStatusIndex.OpenInstances;
 import com.tencent.polaris.common.registry.DubboServiceInfo;
+import com.tencent.polaris.common.registry.PolarisConfig;
 import com.tencent.polaris.common.registry.PolarisOperator;
 import com.tencent.polaris.common.registry.PolarisOperators;
+import com.tencent.polaris.common.router.CompiledRouting;
 import com.tencent.polaris.common.router.RuleHandler;
 import com.tencent.polaris.common.utils.DubboUtils;
 import com.tencent.polaris.specification.api.v1.traffic.manage.RoutingProto;
@@ -35,7 +36,6 @@ import org.apache.dubbo.common.logger.LoggerFactory;
 import org.apache.dubbo.common.utils.CollectionUtils;
 import org.apache.dubbo.rpc.Invocation;
 import org.apache.dubbo.rpc.Invoker;
-import org.apache.dubbo.rpc.RpcContext;
 import org.apache.dubbo.rpc.RpcException;
 import org.apache.dubbo.rpc.cluster.router.AbstractRouter;
 import org.apache.dubbo.rpc.cluster.router.RouterResult;
@@ -43,12 +43,10 @@ import org.apache.dubbo.rpc.model.ApplicationModel;
 import org.apache.dubbo.rpc.model.ScopeModelAware;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public class PolarisRouter extends AbstractRouter implements ScopeModelAware {
 
@@ -60,6 +58,8 @@ public class PolarisRouter extends AbstractRouter implements ScopeModelAware {
 
     private final QueryParser parser;
 
+    private final InstanceInvokerCache invokerCache;
+
     private ApplicationModel applicationModel;
 
     public PolarisRouter(URL url) {
@@ -69,73 +69,139 @@ public class PolarisRouter extends AbstractRouter implements ScopeModelAware {
         this.routeRuleHandler = new RuleHandler();
         this.operator = PolarisOperators.getGovernancePolarisOperator();
         this.parser = QueryParser.load();
+        this.invokerCache = Objects.isNull(operator) ? null : new InstanceInvokerCache(
+                operator.getPolarisConfig().getNamespace(), operator.getCircuitBreakerStatusIndex());
+    }
+
+    @Override
+    public <T> void notify(List<Invoker<T>> invokers) {
+        if (Objects.isNull(invokerCache) || operator.getPolarisConfig().isStateRouterEnabled()) {
+            return;
+        }
+        invokerCache.refresh(invokers);
     }
 
     @Override
     public <T> RouterResult<Invoker<T>> route(List<Invoker<T>> invokers, URL url, Invocation invocation, boolean needToPrintMessage) throws RpcException {
-        if (CollectionUtils.isEmpty(invokers) || Objects.isNull(operator)) {
+        if (CollectionUtils.isEmpty(invokers) || Objects.isNull(operator)
+                || operator.getPolarisConfig().isStateRouterEnabled()) {
             return new RouterResult<>(invokers);
         }
         List<DubboServiceInfo> serviceInfos = DubboUtils.analyzeRemoteDubboServiceInfo(invokers.get(0), invocation);
-        for (DubboServiceInfo serviceInfo : serviceInfos) {
-            RouterResult<Invoker<T>> result = realRoute(invokers, url, invocation, serviceInfo);
-            if (!result.getResult().isEmpty()) {
-                return result;
-            }
+        RouterResult<Invoker<T>> result = realRoute(invokers, url, invocation, serviceInfos);
+        if (!result.getResult().isEmpty()) {
+            return result;
         }
         return new RouterResult<>(invokers);
     }
 
-    @SuppressWarnings("unchecked")
     public <T> RouterResult<Invoker<T>> realRoute(List<Invoker<T>> invokers, URL url, Invocation invocation, DubboServiceInfo serviceInfo) {
-        List<Instance> dubboInstances = new ArrayList<>(invokers.size());
-        for (Invoker<T> invoker : invokers) {
-            dubboInstances.add(new InstanceInvoker<>(invoker, serviceInfo, operator.getPolarisConfig().getNamespace()));
-        }
-        // 这里先把熔断的实例过滤掉
-        List<Instance> instances = dubboInstances.stream().filter(operator::checkCircuitBreakerPassing).collect(Collectors.toList());
-        if (CollectionUtils.isEmpty(instances)) {
-            instances = dubboInstances;
-        }
+        return realRoute(invokers, url, invocation, Collections.singletonList(serviceInfo));
+    }
 
-        ServiceRule serviceRule = operator.getServiceRule(serviceInfo.getService(), EventType.ROUTING);
-        Object ruleObject = serviceRule.getRule();
-        if (Objects.isNull(ruleObject)) {
-            return new RouterResult<>((List<Invoker<T>>) ((List<?>) instances));
+    /**
+     * 应用级/all 注册模式下存在多套服务信息：熔断过滤在原始 Invoker 上只做一次，得到各服务共用的候选集合，
+     * 再依次使用各服务的路由规则，直到结果不为空；后一个服务的规则只在前一个服务的结果为空时才获取。
+     * 每个服务使用按该服务缓存的包装对象与元数据索引
+     */
+    @SuppressWarnings("unchecked")
+    private <T> RouterResult<Invoker<T>> realRoute(List<Invoker<T>> invokers, URL url, Invocation invocation,
+                                                   List<DubboServiceInfo> serviceInfos) {
+        List<Invoker<T>> candidates = excludeOpenInstances(invokers, serviceInfos);
+        if (serviceInfos.size() > 1) {
+            RouterMetrics.MULTI_SERVICE_ROUTES.increment();
         }
-        Set<RouteArgument> arguments = new HashSet<>();
-        RoutingProto.Routing routing = (RoutingProto.Routing) ruleObject;
-        Set<String> routeLabels = routeRuleHandler.getRouteLabels(routing);
-        for (String routeLabel : routeLabels) {
-            // 接口全路径名称，仅支持 Dubbo 应用级注册场景
-            if (StringUtils.equals(RouteArgument.LABEL_KEY_PATH, routeLabel)) {
-                if (StringUtils.isNotBlank(serviceInfo.getDubboInterface())) {
-                    arguments.add(RouteArgument.buildPath(serviceInfo.getDubboInterface()));
-                }
+        for (int i = 0; i < serviceInfos.size(); i++) {
+            DubboServiceInfo serviceInfo = serviceInfos.get(i);
+            if (i > 0) {
+                RouterMetrics.SERVICE_FALLBACKS.increment();
             }
-            // 设置具体的 Dubbo interface 下的某一个 method 名称
-            if (StringUtils.equals(RouteArgument.LABEL_KEY_METHOD, routeLabel)) {
-                arguments.add(RouteArgument.buildMethod(invocation.getMethodName()));
+            InstanceInvokerCache.ServiceInvokers serviceInvokers = invokerCache.getServiceInvokers(serviceInfo);
+            List<Instance> instances = serviceInvokers.getInstances(candidates);
+            Object ruleObject = operator.getServiceRule(serviceInfo.getService(), EventType.ROUTING).getRule();
+            if (Objects.isNull(ruleObject)) {
+                return new RouterResult<>((List<Invoker<T>>) ((List<?>) routeByLocality(serviceInvokers, instances)));
             }
-            if (routeLabel.startsWith(RouteArgument.LABEL_KEY_HEADER)) {
-                String headerName = routeLabel.substring(RouteArgument.LABEL_KEY_HEADER.length());
-                String value = RpcContext.getClientAttachment().getAttachment(headerName);
-                if (!StringUtils.isBlank(value)) {
-                    arguments.add(RouteArgument.buildHeader(headerName, value));
+            RoutingProto.Routing routing = (RoutingProto.Routing) ruleObject;
+            Set<RouteArgument> arguments = routeRuleHandler.getRouteArgumentPlan(routing, parser).extract(serviceInfo, invocation);
+            logger.debug(String.format("[POLARIS] list service(%s), method(%s), labels(%s), url(%s)", serviceInfo.getService(),
+                    invocation.getMethodName(), arguments, url));
+            List<Instance> resultInstances = null;
+            if (operator.getPolarisConfig().isRouteRuleCompileEnabled()) {
+                CompiledRouting compiledRouting = routeRuleHandler.getCompiledRouting(routing);
+                if (compiledRouting.isSupported()) {
+                    resultInstances = compiledRouting.route(arguments, instances, serviceInvokers.getMetadataIndex());
+                }
+                // 本地只替代规则路由，结果仍经过 SDK 的其余路由；被其余路由过滤为空时交给完整的路由链
+                if (Objects.nonNull(resultInstances)) {
+                    resultInstances = operator.routeWithoutRule(serviceInfo.getService(),
+                            serviceInfo.getDubboInterface(), arguments, resultInstances);
+                    resultInstances = resultInstances.isEmpty() ? null : resultInstances;
                 }
             }
-            if (routeLabel.startsWith(RouteArgument.LABEL_KEY_QUERY)) {
-                String queryName = routeLabel.substring(RouteArgument.LABEL_KEY_QUERY.length());
-                if (!StringUtils.isBlank(queryName)) {
-                    Optional<String> value = parser.parse(queryName, invocation.getArguments());
-                    value.ifPresent(s -> arguments.add(RouteArgument.buildQuery(queryName, s)));
+            if (Objects.isNull(resultInstances)) {
+                resultInstances = operator.route(serviceInfo.getService(), serviceInfo.getDubboInterface(), arguments, instances);
+            }
+            if (!resultInstances.isEmpty()) {
+                resultInstances = routeByLocality(serviceInvokers, resultInstances);
+                return new RouterResult<>((List<Invoker<T>>) ((List<?>) resultInstances));
+            }
+        }
+        return new RouterResult<>(Collections.emptyList());
+    }
+
+    private List<Instance> routeByLocality(InstanceInvokerCache.ServiceInvokers serviceInvokers,
+                                           List<Instance> routed) {
+        PolarisConfig config = operator.getPolarisConfig();
+        return serviceInvokers.routeByLocality(routed, config.getNearbyLevel(), config.getLocalRegion(),
+                config.getLocalZone());
+    }
+
+    /**
+     * 一次遍历过滤任一服务下熔断打开的实例：熔断状态索引尚未检查过的服务逐个实例检查，
+     * 所有服务都没有熔断打开的实例时直接返回原列表，全部被过滤时也返回原列表
+     */
+    private <T> List<Invoker<T>> excludeOpenInstances(List<Invoker<T>> invokers, List<DubboServiceInfo> serviceInfos) {
+        OpenInstances[] openInstances = null;
+        boolean[] unchecked = null;
+        for (int i = 0; i < serviceInfos.size(); i++) {
+            OpenInstances current = operator.getCircuitBreakerStatusIndex().getOpenInstances(serviceInfos.get(i).getService());
+            if (null != current && current.isEmpty()) {
+                continue;
+            }
+            if (null == openInstances) {
+                openInstances = new OpenInstances[serviceInfos.size()];
+                unchecked = new boolean[serviceInfos.size()];
+            }
+            openInstances[i] = current;
+            unchecked[i] = null == current;
+        }
+        if (null == openInstances) {
+            return invokers;
+        }
+        List<Invoker<T>> result = new ArrayList<>(invokers.size());
+        for (Invoker<T> invoker : invokers) {
+            if (isPassing(invoker, serviceInfos, openInstances, unchecked)) {
+                result.add(invoker);
+            }
+        }
+        return result.isEmpty() ? invokers : result;
+    }
+
+    private boolean isPassing(Invoker<?> invoker, List<DubboServiceInfo> serviceInfos, OpenInstances[] openInstances,
+                              boolean[] unchecked) {
+        String host = invoker.getUrl().getHost();
+        int port = invoker.getUrl().getPort();
+        for (int i = 0; i < openInstances.length; i++) {
+            if (unchecked[i]) {
+                if (!operator.checkCircuitBreakerPassing(serviceInfos.get(i).getService(), host, port)) {
+                    return false;
                 }
+            } else if (null != openInstances[i] && openInstances[i].contains(host, port)) {
+                return false;
             }
         }
-        logger.debug(String.format("[POLARIS] list service(%s), method(%s), labels(%s), url(%s)", serviceInfo.getService(),
-                invocation.getMethodName(), arguments, url));
-        List<Instance> resultInstances = operator.route(serviceInfo.getService(), serviceInfo.getDubboInterface(), arguments, instances);
-        return new RouterResult<>((List<Invoker<T>>) ((List<?>) resultInstances));
+        return true;
     }
 
     @Override
@@ -0,0 +1,412 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.dubbo.router;
+
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.api.pojo.RouteArgument;
+import com.tencent.polaris.api.pojo.ServiceEventKey.EventType;
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.common.parser.QueryParser;
+import com.tencent.polaris.common.registry.CircuitBreakerStatusIndex.OpenInstances;
+import com.tencent.polaris.common.registry.DubboServiceInfo;
+import com.tencent.polaris.common.registry.PolarisConfig;
+import com.tencent.polaris.common.registry.PolarisOperator;
+import com.tencent.polaris.common.registry.PolarisOperators;
+import com.tencent.polaris.common.router.CompiledRouting;
+import com.tencent.polaris.common.router.Intersection;
+import com.tencent.polaris.common.router.LocalityPartitions;
+import com.tencent.polaris.common.router.MetadataIndex;
+import com.tencent.polaris.common.router.RuleHandler;
+import com.tencent.polaris.common.utils.DubboUtils;
+import com.tencent.polaris.specification.api.v1.traffic.manage.RoutingProto;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.logger.ErrorTypeAwareLogger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.common.utils.CollectionUtils;
+import org.apache.dubbo.common.utils.Holder;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.RpcException;
+import org.apache.dubbo.rpc.cluster.router.RouterSnapshotNode;
+import org.apache.dubbo.rpc.cluster.router.state.AbstractStateRouter;
+import org.apache.dubbo.rpc.cluster.router.state.BitList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 基于 {@link BitList} 的 Polaris 路由实现，路由结果以原始 Invoker 列表的下标集合表示。
+ * <p>
+ * 每个服务的 {@link InstanceInvoker} 包装对象、元数据索引与地域划分只在目录通知时构建，
+ * 路由过程在传入的 BitList 上与预先计算的下标集合求交（{@link BitList#and}），不再遍历、包装每个 Invoker。
+ */
+public class PolarisStateRouter<T> extends AbstractStateRouter<T> {
+
+    private static final ErrorTypeAwareLogger LOGGER = LoggerFactory.getErrorTypeAwareLogger(PolarisStateRouter.class);
+
+    private final RuleHandler routeRuleHandler;
+
+    private final PolarisOperator operator;
+
+    private final QueryParser parser;
+
+    private volatile InvokerSnapshot<T> snapshot;
+
+    public PolarisStateRouter(URL url) {
+        this(url, PolarisOperators.getGovernancePolarisOperator());
+    }
+
+    PolarisStateRouter(URL url, PolarisOperator operator) {
+        super(url);
+        LOGGER.info(String.format("[POLARIS] init service state router, url is %s, parameters are %s", url,
+                url.getParameters()));
+        this.routeRuleHandler = new RuleHandler();
+        this.operator = operator;
+        this.parser = QueryParser.load();
+    }
+
+    @Override
+    public void notify(BitList<Invoker<T>> invokers) {
+        if (!isEnabled()) {
+            return;
+        }
+        snapshot = buildSnapshot(invokers.getOriginList());
+    }
+
+    @Override
+    public void stop() {
+        snapshot = null;
+    }
+
+    @Override
+    protected BitList<Invoker<T>> doRoute(BitList<Invoker<T>> invokers, URL url, Invocation invocation,
+                                          boolean needToPrintMessage, Holder<RouterSnapshotNode<T>> nodeHolder,
+                                          Holder<String> messageHolder) throws RpcException {
+        // 带有 tail list 的 BitList 无法用原始列表下标完整表示，这里不做处理
+        if (CollectionUtils.isEmpty(invokers) || !isEnabled() || invokers.hasMoreElementInTailList()) {
+            return invokers;
+        }
+        // 快照只在目录通知时构建，原始列表与快照不一致（尚未通知）时不做处理
+        InvokerSnapshot<T> current = snapshot;
+        if (Objects.isNull(current) || current.originList != invokers.getOriginList()) {
+            if (needToPrintMessage && Objects.nonNull(messageHolder)) {
+                messageHolder.set("[POLARIS] invokers not notified yet, use all invokers");
+            }
+            return invokers;
+        }
+        List<DubboServiceInfo> serviceInfos = DubboUtils.analyzeRemoteDubboServiceInfo(invokers.get(0), invocation);
+        BitList<Invoker<T>> result = realRoute(current, invokers, url, invocation, serviceInfos,
+                needToPrintMessage ? messageHolder : null);
+        if (null != result && !result.isEmpty()) {
+            // 路由结果总是传入列表的子集，数量相同时即为原列表
+            return result.size() == invokers.size() ? invokers : result;
+        }
+        if (needToPrintMessage && Objects.nonNull(messageHolder)) {
+            messageHolder.set("[POLARIS] no invoker matched, use all invokers");
+        }
+        return invokers;
+    }
+
+    /**
+     * 应用级/all 注册模式下存在多套服务信息，熔断过滤只做一次，依次使用各服务的路由规则，直到结果不为空
+     *
+     * @return 路由后的 Invoker 集合，为 null 或空时使用全部 Invoker
+     */
+    private BitList<Invoker<T>> realRoute(InvokerSnapshot<T> current, BitList<Invoker<T>> available, URL url,
+                                          Invocation invocation, List<DubboServiceInfo> serviceInfos,
+                                          Holder<String> messageHolder) {
+        // 这里先把熔断的实例过滤掉，任一服务下熔断打开的实例都会被过滤，全部被过滤时使用所有实例；
+        // 熔断状态索引尚未检查过的服务逐个实例检查熔断状态
+        BitList<Invoker<T>> candidates = available;
+        for (DubboServiceInfo serviceInfo : serviceInfos) {
+            ServiceInvokers<T> serviceInvokers = current.getServiceInvokers(serviceInfo.getService());
+            if (null == serviceInvokers) {
+                continue;
+            }
+            OpenInstances openInstances = getOpenInstances(serviceInfo.getService());
+            if (null == openInstances) {
+                candidates = excludeNotPassing(current, serviceInvokers, candidates);
+            } else if (!openInstances.isEmpty()) {
+                candidates = current.exclude(candidates, openInstances);
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates = available;
+        }
+
+        if (serviceInfos.size() > 1) {
+            RouterMetrics.MULTI_SERVICE_ROUTES.increment();
+        }
+        int total = available.size();
+        for (int i = 0; i < serviceInfos.size(); i++) {
+            DubboServiceInfo serviceInfo = serviceInfos.get(i);
+            if (i > 0) {
+                RouterMetrics.SERVICE_FALLBACKS.increment();
+            }
+            // 服务名均在构建快照时预先计算，不在快照中的服务没有任何实例
+            ServiceInvokers<T> serviceInvokers = current.getServiceInvokers(serviceInfo.getService());
+            if (null == serviceInvokers) {
+                continue;
+            }
+            Object ruleObject = getRoutingRule(serviceInfo.getService());
+            BitList<Invoker<T>> result = Objects.isNull(ruleObject) ? candidates : routeByRule(current,
+                    serviceInvokers, (RoutingProto.Routing) ruleObject, url, invocation, serviceInfo, candidates);
+            if (null != result && !result.isEmpty()) {
+                result = routeByLocality(current, serviceInvokers, result);
+                if (Objects.nonNull(messageHolder)) {
+                    messageHolder.set(String.format("[POLARIS] route by service %s, %d of %d invokers left",
+                            serviceInfo.getService(), result.size(), total));
+                }
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private BitList<Invoker<T>> routeByRule(InvokerSnapshot<T> current, ServiceInvokers<T> serviceInvokers,
+                                            RoutingProto.Routing routing, URL url, Invocation invocation,
+                                            DubboServiceInfo serviceInfo, BitList<Invoker<T>> candidates) {
+        Set<RouteArgument> arguments = routeRuleHandler.getRouteArgumentPlan(routing, parser).extract(serviceInfo, invocation);
+        LOGGER.debug(String.format("[POLARIS] list service(%s), method(%s), labels(%s), url(%s)", serviceInfo.getService(),
+                invocation.getMethodName(), arguments, url));
+        if (getPolarisConfig().isRouteRuleCompileEnabled()) {
+            CompiledRouting compiledRouting = routeRuleHandler.getCompiledRouting(routing);
+            if (compiledRouting.isSupported()) {
+                BitList<Invoker<T>> selected = compiledRouting.route(arguments, candidates, serviceInvokers.index,
+                        current.intersection);
+                // 本地只替代规则路由，结果仍经过 SDK 的其余路由；被其余路由过滤为空时交给完整的路由链
+                if (Objects.nonNull(selected)) {
+                    List<Instance> resultInstances = operator.routeWithoutRule(serviceInfo.getService(),
+                            serviceInfo.getDubboInterface(), arguments, current.toInstances(serviceInvokers, selected));
+                    if (!resultInstances.isEmpty()) {
+                        return current.toBitList(resultInstances);
+                    }
+                }
+            }
+        }
+        List<Instance> resultInstances = operator.route(serviceInfo.getService(), serviceInfo.getDubboInterface(),
+                arguments, current.toInstances(serviceInvokers, candidates));
+        return current.toBitList(resultInstances);
+    }
+
+    /**
+     * 就近路由：在路由结果中依次选取与本地同可用区、同地域的实例，都没有时保持原结果
+     */
+    private BitList<Invoker<T>> routeByLocality(InvokerSnapshot<T> current, ServiceInvokers<T> serviceInvokers,
+                                                BitList<Invoker<T>> routed) {
+        PolarisConfig config = getPolarisConfig();
+        return serviceInvokers.locality.select(routed, current.intersection, config.getNearbyLevel(),
+                config.getLocalRegion(), config.getLocalZone());
+    }
+
+    private BitList<Invoker<T>> excludeNotPassing(InvokerSnapshot<T> current, ServiceInvokers<T> serviceInvokers,
+                                                  BitList<Invoker<T>> candidates) {
+        BitList<Invoker<T>> result = new BitList<>(current.originList, true);
+        for (Invoker<T> invoker : candidates) {
+            int index = current.indexOf(invoker);
+            if (checkCircuitBreakerPassing(serviceInvokers.wrappers.get(index))) {
+                result.addIndex(index);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 构建快照，并将各服务的实例登记到熔断状态索引
+     */
+    private InvokerSnapshot<T> buildSnapshot(List<Invoker<T>> originList) {
+        InvokerSnapshot<T> current = new InvokerSnapshot<>(originList, getPolarisConfig().getNamespace());
+        current.services.forEach((service, serviceInvokers) -> watch(service, serviceInvokers.wrappers));
+        return current;
+    }
+
+    private boolean isEnabled() {
+        PolarisConfig config = getPolarisConfig();
+        return Objects.nonNull(config) && config.isStateRouterEnabled();
+    }
+
+    PolarisConfig getPolarisConfig() {
+        return Objects.isNull(operator) ? null : operator.getPolarisConfig();
+    }
+
+    OpenInstances getOpenInstances(String service) {
+        return operator.getCircuitBreakerStatusIndex().getOpenInstances(service);
+    }
+
+    void watch(String service, List<? extends Instance> instances) {
+        if (Objects.nonNull(operator) && !instances.isEmpty()) {
+            operator.getCircuitBreakerStatusIndex().watch(this, service, instances);
+        }
+    }
+
+    boolean checkCircuitBreakerPassing(Instance instance) {
+        return operator.checkCircuitBreakerPassing(instance);
+    }
+
+    Object getRoutingRule(String service) {
+        return operator.getServiceRule(service, EventType.ROUTING).getRule();
+    }
+
+    /**
+     * 同一份原始 Invoker 列表对应的路由状态，只在目录通知时按 Polaris 服务名构建，下标与原始列表一一对应
+     */
+    private static class InvokerSnapshot<T> {
+
+        private final List<Invoker<T>> originList;
+
+        private final String namespace;
+
+        private final Map<String, ServiceInvokers<T>> services;
+
+        /**
+         * Invoker -> 原始列表中的下标
+         */
+        private final Map<Invoker<T>, Integer> indexes;
+
+        /**
+         * host:port -> 原始列表中的下标，用于按熔断打开的实例排除候选
+         */
+        private final Map<String, int[]> positions;
+
+        /**
+         * 候选 BitList 与索引下标集合的求交，结果为新的 BitList，不修改传入的候选集合
+         */
+        private final Intersection<BitList<Invoker<T>>> intersection;
+
+        InvokerSnapshot(List<Invoker<T>> originList, String namespace) {
+            this.originList = originList;
+            this.namespace = namespace;
+            Set<String> serviceNames = new LinkedHashSet<>();
+            Map<Invoker<T>, Integer> invokerIndexes = new IdentityHashMap<>(originList.size());
+            Map<String, int[]> addressPositions = new HashMap<>(originList.size());
+            for (int i = 0; i < originList.size(); i++) {
+                Invoker<T> invoker = originList.get(i);
+                serviceNames.addAll(DubboUtils.analyzeRemoteServices(invoker));
+                invokerIndexes.put(invoker, i);
+                int position = i;
+                addressPositions.merge(invoker.getUrl().getAddress(), new int[]{i}, (previous, ignore) -> {
+                    int[] merged = Arrays.copyOf(previous, previous.length + 1);
+                    merged[previous.length] = position;
+                    return merged;
+                });
+            }
+            Map<String, ServiceInvokers<T>> serviceInvokers = new HashMap<>(serviceNames.size());
+            for (String service : serviceNames) {
+                serviceInvokers.put(StringUtils.defaultString(service), buildServiceInvokers(service));
+            }
+            this.services = serviceInvokers;
+            this.indexes = invokerIndexes;
+            this.positions = addressPositions;
+            this.intersection = new Intersection<BitList<Invoker<T>>>() {
+
+                @Override
+                public BitList<Invoker<T>> and(BitList<Invoker<T>> candidates, BitSet indexes) {
+                    return candidates.clone().and(new BitList<>(originList, indexes, null));
+                }
+
+                @Override
+                public boolean isEmpty(BitList<Invoker<T>> candidates) {
+                    return candidates.isEmpty();
+                }
+            };
+        }
+
+        /**
+         * @return 服务对应的包装对象与索引，快照中没有该服务的实例时返回 null
+         */
+        ServiceInvokers<T> getServiceInvokers(String service) {
+            return services.get(StringUtils.defaultString(service));
+        }
+
+        int indexOf(Invoker<T> invoker) {
+            return indexes.get(invoker);
+        }
+
+        /**
+         * 排除熔断打开的实例，结果为新的 BitList
+         */
+        BitList<Invoker<T>> exclude(BitList<Invoker<T>> candidates, OpenInstances openInstances) {
+            BitSet passing = new BitSet(originList.size());
+            passing.set(0, originList.size());
+            openInstances.forEach((host, port) -> {
+                int[] indexes = positions.get(host + ":" + port);
+                if (null != indexes) {
+                    for (int index : indexes) {
+                        passing.clear(index);
+                    }
+                }
+            });
+            return intersection.and(candidates, passing);
+        }
+
+        List<Instance> toInstances(ServiceInvokers<T> serviceInvokers, BitList<Invoker<T>> invokers) {
+            List<Instance> result = new ArrayList<>(invokers.size());
+            for (Invoker<T> invoker : invokers) {
+                result.add(serviceInvokers.wrappers.get(indexOf(invoker)));
+            }
+            return result;
+        }
+
+        BitList<Invoker<T>> toBitList(List<Instance> instances) {
+            BitList<Invoker<T>> result = new BitList<>(originList, true);
+            for (Instance instance : instances) {
+                result.addIndex(((InstanceInvoker<?>) instance).getIndex());
+            }
+            return result;
+        }
+
+        private ServiceInvokers<T> buildServiceInvokers(String service) {
+            DubboServiceInfo serviceInfo = DubboServiceInfo.builder().service(service).build();
+            List<InstanceInvoker<T>> result = new ArrayList<>(originList.size());
+            for (int i = 0; i < originList.size(); i++) {
+                result.add(new InstanceInvoker<>(originList.get(i), serviceInfo, namespace, i));
+            }
+            return new ServiceInvokers<>(Collections.unmodifiableList(result));
+        }
+    }
+
+    private static class ServiceInvokers<T> {
+
+        private final List<InstanceInvoker<T>> wrappers;
+
+        /**
+         * 元数据倒排索引，下标与原始 Invoker 列表一致
+         */
+        private final MetadataIndex index;
+
+        /**
+         * 按地域、可用区预先划分的实例下标集合，下标与原始 Invoker 列表一致
+         */
+        private final LocalityPartitions locality;
+
+        ServiceInvokers(List<InstanceInvoker<T>> wrappers) {
+            this.wrappers = wrappers;
+            this.index = new MetadataIndex(wrappers);
+            this.locality = new LocalityPartitions(wrappers);
+        }
+    }
+}
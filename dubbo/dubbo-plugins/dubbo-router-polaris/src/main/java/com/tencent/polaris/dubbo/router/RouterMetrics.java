@@ -0,0 +1,41 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.dubbo.router;
+
+import com.tencent.polaris.common.metrics.MetricRegistry;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 路由相关指标，应用级/all 注册模式下会同时存在应用名与接口名两套服务信息
+ */
+final class RouterMetrics {
+
+    /**
+     * 存在多套服务信息的路由次数
+     */
+    static final LongAdder MULTI_SERVICE_ROUTES = MetricRegistry.counter("polaris_dubbo_router_multi_service_total");
+
+    /**
+     * 第一套服务信息路由结果为空，回退到后续服务信息的次数
+     */
+    static final LongAdder SERVICE_FALLBACKS = MetricRegistry.counter("polaris_dubbo_router_service_fallback_total");
+
+    private RouterMetrics() {
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.dubbo.router;
+
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.common.registry.CircuitBreakerStatusIndex.OpenInstances;
+import com.tencent.polaris.common.registry.PolarisConfig;
+import com.tencent.polaris.common.registry.PolarisOperators;
+import com.tencent.polaris.common.utils.Consts;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.Result;
+import org.apache.dubbo.rpc.RpcInvocation;
+import org.apache.dubbo.rpc.cluster.router.state.BitList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PolarisStateRouterTest {
+
+    private static final URL CONSUMER_URL = URL.valueOf("consumer://127.0.0.1/com.example.DemoService");
+
+    private final Invocation invocation = new RpcInvocation("sayHello", "com.example.DemoService", "",
+            new Class<?>[0], new Object[0]);
+
+    @Test
+    public void testNoRuleKeepsInvokers() {
+        BitList<Invoker<Object>> invokers = invokers("z1", "z2", "z1");
+        PolarisStateRouter<Object> router = router(new HashMap<>(), OpenInstances.EMPTY);
+        router.notify(invokers);
+
+        Assert.assertSame(invokers, router.doRoute(invokers, CONSUMER_URL, invocation, false, null, null));
+        BitList<Invoker<Object>> subset = subset(invokers, 0, 2);
+        Assert.assertSame(subset, router.doRoute(subset, CONSUMER_URL, invocation, false, null, null));
+    }
+
+    @Test
+    public void testCircuitBreakerOpenExcluded() {
+        BitList<Invoker<Object>> invokers = invokers("z1", "z2", "z1");
+        PolarisStateRouter<Object> router = router(new HashMap<>(), OpenInstances.EMPTY.with("10.0.0.2", 20880));
+        router.notify(invokers);
+
+        BitList<Invoker<Object>> result = router.doRoute(invokers, CONSUMER_URL, invocation, false, null, null);
+        Assert.assertSame(invokers.getOriginList(), result.getOriginList());
+        Assert.assertEquals(2, result.size());
+        Assert.assertTrue(result.indexExist(0));
+        Assert.assertFalse(result.indexExist(1));
+        Assert.assertTrue(result.indexExist(2));
+    }
+
+    @Test
+    public void testNotNotifiedKeepsInvokers() {
+        BitList<Invoker<Object>> invokers = invokers("z1", "z2", "z1");
+        PolarisStateRouter<Object> router = router(new HashMap<>(), OpenInstances.EMPTY.with("10.0.0.2", 20880));
+        router.notify(invokers);
+
+        // 快照只在目录通知时构建，路由时原始列表与快照不一致则不做处理
+        BitList<Invoker<Object>> others = invokers("z1", "z2");
+        Assert.assertSame(others, router.doRoute(others, CONSUMER_URL, invocation, false, null, null));
+    }
+
+    @Test
+    public void testCircuitBreakerUncheckedServiceCheckEach() {
+        BitList<Invoker<Object>> invokers = invokers("z1", "z2", "z1");
+        // 熔断状态索引尚未检查过该服务，逐个实例检查，10.0.0.2 熔断打开
+        PolarisStateRouter<Object> router = router(new HashMap<>(), null);
+        router.notify(invokers);
+
+        BitList<Invoker<Object>> result = router.doRoute(invokers, CONSUMER_URL, invocation, false, null, null);
+        Assert.assertEquals(2, result.size());
+        Assert.assertTrue(result.indexExist(0));
+        Assert.assertFalse(result.indexExist(1));
+        Assert.assertTrue(result.indexExist(2));
+    }
+
+    @Test
+    public void testAllOpenUseAllInvokers() {
+        BitList<Invoker<Object>> invokers = invokers("z1", "z2");
+        PolarisStateRouter<Object> router = router(new HashMap<>(),
+                OpenInstances.EMPTY.with("10.0.0.1", 20880).with("10.0.0.2", 20880));
+        router.notify(invokers);
+
+        Assert.assertSame(invokers, router.doRoute(invokers, CONSUMER_URL, invocation, false, null, null));
+    }
+
+    @Test
+    public void testNearbyZoneThenRegion() {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(Consts.KEY_ROUTER_NEARBY, Consts.NEARBY_LEVEL_ZONE);
+        parameters.put(Consts.KEY_LOCAL_REGION, "r1");
+        parameters.put(Consts.KEY_LOCAL_ZONE, "z1");
+        BitList<Invoker<Object>> invokers = invokers("z1", "z2", "z1", "z3");
+        PolarisStateRouter<Object> router = router(parameters, OpenInstances.EMPTY);
+        router.notify(invokers);
+
+        BitList<Invoker<Object>> result = router.doRoute(invokers, CONSUMER_URL, invocation, false, null, null);
+        Assert.assertEquals(2, result.size());
+        Assert.assertTrue(result.indexExist(0));
+        Assert.assertTrue(result.indexExist(2));
+
+        // 路由前的子集中没有同可用区的实例时，使用同地域的实例
+        result = router.doRoute(subset(invokers, 1, 3), CONSUMER_URL, invocation, false, null, null);
+        Assert.assertEquals(1, result.size());
+        Assert.assertTrue(result.indexExist(1));
+    }
+
+    private static PolarisStateRouter<Object> router(Map<String, String> parameters, OpenInstances openInstances) {
+        parameters.put(Consts.KEY_ROUTER_MODE, Consts.ROUTER_MODE_STATE);
+        PolarisConfig config = new PolarisConfig(PolarisOperators.OperatorType.GOVERNANCE, "127.0.0.1", 8091,
+                parameters);
+        return new PolarisStateRouter<Object>(CONSUMER_URL, null) {
+
+            @Override
+            PolarisConfig getPolarisConfig() {
+                return config;
+            }
+
+            @Override
+            OpenInstances getOpenInstances(String service) {
+                return openInstances;
+            }
+
+            @Override
+            boolean checkCircuitBreakerPassing(Instance instance) {
+                return !"10.0.0.2".equals(instance.getHost());
+            }
+
+            @Override
+            Object getRoutingRule(String service) {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * 第 i 个实例的地址为 10.0.0.(i+1):20880，z3 位于 r2 地域，其余位于 r1
+     */
+    private static BitList<Invoker<Object>> invokers(String... zones) {
+        List<Invoker<Object>> invokers = new ArrayList<>();
+        for (int i = 0; i < zones.length; i++) {
+            String region = "z3".equals(zones[i]) ? "r2" : "r1";
+            invokers.add(new TestInvoker(URL.valueOf("dubbo://10.0.0." + (i + 1)
+                    + ":20880/com.example.DemoService?register-mode=interface&region=" + region
+                    + "&zone=" + zones[i])));
+        }
+        return new BitList<>(invokers);
+    }
+
+    private static BitList<Invoker<Object>> subset(BitList<Invoker<Object>> invokers, int... indexes) {
+        BitList<Invoker<Object>> result = new BitList<>(invokers.getOriginList(), true);
+        for (int index : indexes) {
+            result.addIndex(index);
+        }
+        return result;
+    }
+
+    private static class TestInvoker implements Invoker<Object> {
+
+        private final URL url;
+
+        TestInvoker(URL url) {
+            this.url = url;
+        }
+
+        @Override
+        public Class<Object> getInterface() {
+            return Object.class;
+        }
+
+        @Override
+        public Result invoke(Invocation invocation) {
+            return null;
+        }
+
+        @Override
+        public URL getUrl() {
+            return url;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
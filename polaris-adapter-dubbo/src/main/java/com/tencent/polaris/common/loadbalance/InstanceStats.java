@@ -0,0 +1,87 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.loadbalance;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个实例的调用统计：按时间衰减的延迟 EWMA 以及在途请求数，所有更新均为无锁操作。
+ */
+public final class InstanceStats {
+
+    /**
+     * EWMA 的衰减时间常数，距上次观测越久，历史值的权重越低
+     */
+    private static final double DECAY_NANOS = 10_000_000_000d;
+
+    private final String address;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    private final AtomicLong ewmaBits = new AtomicLong(Double.doubleToRawLongBits(0d));
+
+    private volatile long lastNanos = System.nanoTime();
+
+    /**
+     * 引用该统计的负载均衡选择表数量，仅在 {@link InstanceStatsRegistry} 中按 key 原子修改
+     */
+    int references;
+
+    InstanceStats(String address) {
+        this.address = address;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public void onStart() {
+        inflight.incrementAndGet();
+    }
+
+    public void onComplete(long delayNanos) {
+        inflight.decrementAndGet();
+        long now = System.nanoTime();
+        double weight = Math.exp(-Math.max(now - lastNanos, 0) / DECAY_NANOS);
+        lastNanos = now;
+        long prev;
+        long next;
+        do {
+            prev = ewmaBits.get();
+            double ewma = Double.longBitsToDouble(prev);
+            next = Double.doubleToRawLongBits(ewma * weight + delayNanos * (1 - weight));
+        } while (!ewmaBits.compareAndSet(prev, next));
+    }
+
+    /**
+     * 选择代价，延迟越高、在途请求越多代价越大。长时间没有观测的实例延迟会逐渐衰减，使其重新获得探测流量
+     */
+    public double cost(long nowNanos) {
+        double ewma = Double.longBitsToDouble(ewmaBits.get());
+        long idle = nowNanos - lastNanos;
+        if (idle > 0) {
+            ewma *= Math.exp(-idle / DECAY_NANOS);
+        }
+        return (ewma + 1) * (Math.max(inflight.get(), 0) + 1);
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+}
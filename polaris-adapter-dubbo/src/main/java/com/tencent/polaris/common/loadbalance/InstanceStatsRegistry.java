@@ -0,0 +1,62 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.loadbalance;
+
+import com.tencent.polaris.common.metrics.MetricRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按实例地址（host:port）保存调用统计，由上报过滤器写入、负载均衡读取。
+ * <p>
+ * 只有被负载均衡选择表引用的实例才会记录统计：选择表构建时 {@link #acquire(String)}，
+ * 被替换时 {@link #release(String)}，引用归零即实例已从所有服务中下线，统计随之移除。
+ */
+public final class InstanceStatsRegistry {
+
+    private static final Map<String, InstanceStats> STATS = new ConcurrentHashMap<>();
+
+    static {
+        MetricRegistry.gauge("polaris_dubbo_lb_instance_stats", STATS::size);
+    }
+
+    private InstanceStatsRegistry() {
+    }
+
+    /**
+     * @return 实例的调用统计，实例未被负载均衡引用时返回 null
+     */
+    public static InstanceStats get(String address) {
+        return null == address ? null : STATS.get(address);
+    }
+
+    public static InstanceStats acquire(String address) {
+        return STATS.compute(address, (key, stats) -> {
+            if (null == stats) {
+                stats = new InstanceStats(key);
+            }
+            stats.references++;
+            return stats;
+        });
+    }
+
+    public static void release(String address) {
+        STATS.computeIfPresent(address, (key, stats) -> --stats.references <= 0 ? null : stats);
+    }
+}
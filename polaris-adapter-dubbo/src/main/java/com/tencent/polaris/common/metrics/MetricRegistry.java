@@ -0,0 +1,123 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 插件内部的轻量指标：计数器基于 {@link LongAdder}，并周期性地在指标发生变化时输出到日志。
+ * <p>
+ * 计数器与进程内唯一的 gauge 按名称共享；随组件实例创建的 gauge 通过 {@link #instanceGauge(String, LongSupplier)}
+ * 注册，名称后追加实例序号，避免多个注册中心、多个 SDK 上下文之间互相覆盖，组件销毁时需要注销。
+ */
+public final class MetricRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricRegistry.class);
+
+    private static final long REPORT_INTERVAL_SECONDS = 60;
+
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger GAUGE_INSTANCES = new AtomicInteger();
+
+    private static final AtomicBoolean REPORTER_STARTED = new AtomicBoolean(false);
+
+    private static volatile Map<String, Long> lastReported;
+
+    private MetricRegistry() {
+    }
+
+    public static LongAdder counter(String name) {
+        LongAdder counter = COUNTERS.get(name);
+        if (null != counter) {
+            return counter;
+        }
+        startReporter();
+        return COUNTERS.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * 注册进程内唯一的 gauge，同名注册会覆盖
+     */
+    public static void gauge(String name, LongSupplier supplier) {
+        startReporter();
+        GAUGES.put(name, supplier);
+    }
+
+    /**
+     * 注册随组件实例创建的 gauge
+     *
+     * @return 实际注册的名称，组件销毁时传给 {@link #unregister(String)}
+     */
+    public static String instanceGauge(String name, LongSupplier supplier) {
+        String key = name + "{instance=\"" + GAUGE_INSTANCES.incrementAndGet() + "\"}";
+        gauge(key, supplier);
+        return key;
+    }
+
+    public static void unregister(String name) {
+        GAUGES.remove(name);
+    }
+
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> values.put(name, counter.sum()));
+        GAUGES.forEach((name, supplier) -> values.put(name, supplier.getAsLong()));
+        return values;
+    }
+
+    private static void startReporter() {
+        if (!REPORTER_STARTED.compareAndSet(false, true)) {
+            return;
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "polaris-dubbo-metric-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(MetricRegistry::report, REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    private static void report() {
+        try {
+            Map<String, Long> values = snapshot();
+            if (!Objects.equals(values, lastReported)) {
+                LOGGER.info("[POLARIS] metrics {}", values);
+                lastReported = values;
+            }
+        } catch (Throwable e) {
+            LOGGER.warn("[POLARIS] fail to report metrics", e);
+        }
+    }
+}
@@ -23,6 +23,7 @@ import shade.polaris.com.google.gson.Gson;
 
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
 class JsonPathQueryParser implements QueryParser {
@@ -33,12 +34,39 @@ class JsonPathQueryParser implements QueryParser {
 
     private static final String PREFIX_PARAM_ARRAY = "param[";
 
+    private static final Gson GSON = new Gson();
+
 
     @Override
     public String name() {
         return "JsonPath";
     }
 
+    @Override
+    public Function<Object[], Optional<String>> compile(String query) {
+        Index index = resolveIndex(query);
+        if (index.index == -1) {
+            return parameters -> Optional.empty();
+        }
+        JsonPath path;
+        try {
+            path = JsonPath.compile(index.key);
+        } catch (RuntimeException e) {
+            return QueryParser.super.compile(query);
+        }
+        return parameters -> {
+            if (Objects.isNull(parameters) || index.index >= parameters.length) {
+                return Optional.empty();
+            }
+            ReadContext ctx = JsonPath.parse(GSON.toJson(parameters[index.index]));
+            Object value = ctx.read(path, Object.class);
+            if (Objects.isNull(value)) {
+                return Optional.empty();
+            }
+            return Optional.of(Objects.toString(value));
+        };
+    }
+
     @Override
     public Optional<String> parse(String query, Object[] parameters) {
         if (Objects.isNull(parameters) || parameters.length == 0) {
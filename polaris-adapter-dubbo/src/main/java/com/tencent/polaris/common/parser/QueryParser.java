@@ -20,6 +20,7 @@ package com.tencent.polaris.common.parser;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.ServiceLoader;
+import java.util.function.Function;
 
 public interface QueryParser {
 
@@ -27,6 +28,13 @@ public interface QueryParser {
 
     String name();
 
+    /**
+     * 预先解析查询表达式，返回可以重复使用的取值函数，默认实现每次都调用 {@link #parse(String, Object[])}
+     */
+    default Function<Object[], Optional<String>> compile(String query) {
+        return parameters -> parse(query, parameters);
+    }
+
     static QueryParser load() {
         ServiceLoader<QueryParser> loader = ServiceLoader.load(QueryParser.class);
         if (loader.iterator().hasNext()) {
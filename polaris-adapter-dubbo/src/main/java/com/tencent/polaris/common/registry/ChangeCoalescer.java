@@ -0,0 +1,134 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.registry;
+
+import com.tencent.polaris.common.metrics.MetricRegistry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务变更通知的合并器：同一个 key 的变更事件在窗口期内合并为一次处理。
+ * <p>
+ * 收到事件后等待窗口期，期间有新事件则顺延，但距离首个事件不超过最大延迟；窗口为 0 时不合并。
+ * 处理时重新拉取最新的实例，因此合并多个事件只需要执行最后一次提交的任务，任务交给 {@link NotifyDispatcher} 按服务执行。
+ */
+public class ChangeCoalescer {
+
+    private static final LongAdder EVENTS = MetricRegistry.counter("polaris_dubbo_registry_change_events_total");
+
+    private static final LongAdder NOTIFIES = MetricRegistry.counter("polaris_dubbo_registry_change_notifies_total");
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "polaris-dubbo-change-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long windowNanos;
+
+    private final long maxDelayNanos;
+
+    private final NotifyDispatcher dispatcher;
+
+    private final Map<Object, Pending> pendings = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    public ChangeCoalescer(long windowMilli, long maxDelayMilli, NotifyDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(windowMilli, 0));
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(maxDelayMilli, windowMilli));
+    }
+
+    public void submit(String service, Object key, Runnable task) {
+        EVENTS.increment();
+        if (closed) {
+            return;
+        }
+        if (windowNanos == 0) {
+            run(service, task);
+            return;
+        }
+        long now = System.nanoTime();
+        boolean[] created = new boolean[1];
+        Pending pending = pendings.compute(key, (k, current) -> {
+            if (null == current) {
+                created[0] = true;
+                return new Pending(service, task, now);
+            }
+            current.task = task;
+            current.lastEventNanos = now;
+            return current;
+        });
+        if (created[0]) {
+            schedule(key, pending, windowNanos);
+        }
+    }
+
+    public void close() {
+        closed = true;
+        pendings.clear();
+    }
+
+    private void schedule(Object key, Pending pending, long delayNanos) {
+        SCHEDULER.schedule(() -> fire(key, pending), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void fire(Object key, Pending pending) {
+        long now = System.nanoTime();
+        long quietDeadline = pending.lastEventNanos + windowNanos;
+        long maxDeadline = pending.firstEventNanos + maxDelayNanos;
+        long deadline = Math.min(quietDeadline, maxDeadline);
+        if (now < deadline) {
+            schedule(key, pending, deadline - now);
+            return;
+        }
+        // 先移除再执行，执行期间到达的事件会开始新一轮合并
+        if (!pendings.remove(key, pending)) {
+            return;
+        }
+        run(pending.service, pending.task);
+    }
+
+    private void run(String service, Runnable task) {
+        NOTIFIES.increment();
+        dispatcher.execute(service, task);
+    }
+
+    private static class Pending {
+
+        private final String service;
+
+        private final long firstEventNanos;
+
+        private volatile Runnable task;
+
+        private volatile long lastEventNanos;
+
+        Pending(String service, Runnable task, long now) {
+            this.service = service;
+            this.task = task;
+            this.firstEventNanos = now;
+            this.lastEventNanos = now;
+        }
+    }
+}
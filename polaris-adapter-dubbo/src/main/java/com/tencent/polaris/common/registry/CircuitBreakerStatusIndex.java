@@ -0,0 +1,321 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.registry;
+
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.api.pojo.RetStatus;
+import com.tencent.polaris.common.utils.HostPortKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * 按服务维护处于熔断打开状态的实例集合，供路由直接读取，避免每次路由都对每个实例做熔断检查。
+ * <p>
+ * 集合内容以 SDK 的熔断检查结果为准：路由在目录通知时登记服务下的实例，后台线程按固定间隔逐个检查登记的实例，
+ * 因此无论熔断由熔断统计、调用结果上报还是故障探测打开或恢复，都会在一个检查间隔内反映到集合中；
+ * 熔断统计上报后会立即单独检查该实例。尚未完成检查的服务返回 null，由调用方逐个实例检查。
+ */
+public class CircuitBreakerStatusIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreakerStatusIndex.class);
+
+    private static final long CHECK_INTERVAL_MILLI = 1000;
+
+    /**
+     * 连续这么多个检查间隔没有被路由读取的服务暂停检查，再次读取时重新开始
+     */
+    private static final int IDLE_ROUNDS = 60;
+
+    private final PolarisOperator operator;
+
+    private final Map<String, ServiceStatus> services = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService executor;
+
+    private boolean destroyed;
+
+    CircuitBreakerStatusIndex(PolarisOperator operator) {
+        this.operator = operator;
+    }
+
+    /**
+     * @return 服务下处于熔断打开状态的实例集合；服务未登记或尚未完成检查时返回 null
+     */
+    public OpenInstances getOpenInstances(String service) {
+        ServiceStatus status = null == service ? null : services.get(service);
+        if (null == status) {
+            return null;
+        }
+        if (!status.accessed) {
+            status.accessed = true;
+            if (null == status.open) {
+                // 暂停检查后再次被读取，立即恢复检查
+                submit(service, status);
+            }
+        }
+        return status.open;
+    }
+
+    /**
+     * 登记服务下参与路由的实例，owner 为持有该实例列表的路由对象，同一 owner 再次登记时替换之前的列表
+     */
+    public void watch(Object owner, String service, List<? extends Instance> instances) {
+        if (null == service) {
+            return;
+        }
+        ServiceStatus status = services.computeIfAbsent(service, key -> new ServiceStatus());
+        synchronized (status) {
+            status.sources.put(owner, instances);
+        }
+        status.accessed = true;
+        submit(service, status);
+    }
+
+    /**
+     * 实例级熔断统计上报后立即检查该实例：失败可能导致熔断打开，已熔断实例调用成功说明可能已经恢复
+     */
+    public void onInvokeResult(String service, String host, int port, RetStatus retStatus) {
+        ServiceStatus status = null == service ? null : services.get(service);
+        OpenInstances open = null == status ? null : status.open;
+        if (null == open) {
+            return;
+        }
+        boolean failed = retStatus == RetStatus.RetFail || retStatus == RetStatus.RetTimeout
+                || retStatus == RetStatus.RetReject;
+        if (failed == open.contains(host, port)) {
+            return;
+        }
+        boolean passing = operator.checkCircuitBreakerPassing(service, host, port);
+        synchronized (status) {
+            if (null != status.open) {
+                status.open = passing ? status.open.without(host, port) : status.open.with(host, port);
+            }
+        }
+    }
+
+    public synchronized void destroy() {
+        destroyed = true;
+        if (null != executor) {
+            executor.shutdownNow();
+        }
+        services.clear();
+    }
+
+    private void submit(String service, ServiceStatus status) {
+        ScheduledExecutorService current = getExecutor();
+        if (null == current) {
+            return;
+        }
+        try {
+            current.execute(() -> check(service, status));
+        } catch (RejectedExecutionException ignore) {
+            // 已经销毁
+        }
+    }
+
+    private synchronized ScheduledExecutorService getExecutor() {
+        if (null == executor && !destroyed) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "polaris-dubbo-circuitbreaker-checker");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::checkAll, CHECK_INTERVAL_MILLI, CHECK_INTERVAL_MILLI,
+                    TimeUnit.MILLISECONDS);
+        }
+        return executor;
+    }
+
+    private void checkAll() {
+        for (Map.Entry<String, ServiceStatus> entry : services.entrySet()) {
+            ServiceStatus status = entry.getValue();
+            if (status.accessed) {
+                status.accessed = false;
+                status.idleRounds = 0;
+            } else if (++status.idleRounds >= IDLE_ROUNDS) {
+                // 长时间没有路由读取，丢弃可能已经过期的结果，再次读取时重新检查
+                status.open = null;
+                continue;
+            }
+            check(entry.getKey(), status);
+        }
+    }
+
+    private void check(String service, ServiceStatus status) {
+        List<List<? extends Instance>> sources;
+        synchronized (status) {
+            sources = new ArrayList<>(status.sources.values());
+        }
+        OpenInstances open = OpenInstances.EMPTY;
+        try {
+            for (List<? extends Instance> instances : sources) {
+                for (Instance instance : instances) {
+                    if (!open.contains(instance.getHost(), instance.getPort())
+                            && !operator.checkCircuitBreakerPassing(instance)) {
+                        open = open.with(instance.getHost(), instance.getPort());
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            LOGGER.warn("[POLARIS] fail to check circuit breaker of service {}, {}", service, e.toString());
+            return;
+        }
+        synchronized (status) {
+            status.open = open;
+        }
+    }
+
+    /**
+     * 单个服务的熔断状态
+     */
+    private static final class ServiceStatus {
+
+        /**
+         * 登记该服务实例的路由对象 -> 实例列表，路由对象被回收后自动移除
+         */
+        final Map<Object, List<? extends Instance>> sources = new WeakHashMap<>();
+
+        /**
+         * 最近一次检查的结果，暂停检查后为 null
+         */
+        volatile OpenInstances open;
+
+        /**
+         * 上一个检查间隔内是否被路由读取
+         */
+        volatile boolean accessed;
+
+        /**
+         * 连续没有被路由读取的检查轮数，只在检查线程上访问
+         */
+        int idleRounds;
+    }
+
+    /**
+     * 不可变的熔断打开实例集合，IPv4 实例以打包后的 long 有序存放，其余实例按 host 存放有序的端口
+     */
+    public static final class OpenInstances {
+
+        public static final OpenInstances EMPTY = new OpenInstances(new long[0], Collections.emptyMap());
+
+        private final long[] keys;
+
+        private final Map<String, int[]> others;
+
+        private OpenInstances(long[] keys, Map<String, int[]> others) {
+            this.keys = keys;
+            this.others = others;
+        }
+
+        public boolean isEmpty() {
+            return keys.length == 0 && others.isEmpty();
+        }
+
+        public boolean contains(String host, int port) {
+            if (isEmpty()) {
+                return false;
+            }
+            long key = HostPortKeys.pack(host, port);
+            if (key != HostPortKeys.INVALID) {
+                return Arrays.binarySearch(keys, key) >= 0;
+            }
+            int[] ports = others.get(host);
+            return null != ports && Arrays.binarySearch(ports, port) >= 0;
+        }
+
+        /**
+         * 依次访问集合中的实例
+         */
+        public void forEach(ObjIntConsumer<String> action) {
+            for (long key : keys) {
+                action.accept(HostPortKeys.host(key), HostPortKeys.port(key));
+            }
+            for (Map.Entry<String, int[]> entry : others.entrySet()) {
+                for (int port : entry.getValue()) {
+                    action.accept(entry.getKey(), port);
+                }
+            }
+        }
+
+        public OpenInstances with(String host, int port) {
+            if (contains(host, port)) {
+                return this;
+            }
+            long key = HostPortKeys.pack(host, port);
+            if (key != HostPortKeys.INVALID) {
+                long[] newKeys = Arrays.copyOf(keys, keys.length + 1);
+                newKeys[keys.length] = key;
+                Arrays.sort(newKeys);
+                return new OpenInstances(newKeys, others);
+            }
+            int[] ports = others.getOrDefault(host, new int[0]);
+            int[] newPorts = Arrays.copyOf(ports, ports.length + 1);
+            newPorts[ports.length] = port;
+            Arrays.sort(newPorts);
+            Map<String, int[]> newOthers = new HashMap<>(others);
+            newOthers.put(host, newPorts);
+            return new OpenInstances(keys, Collections.unmodifiableMap(newOthers));
+        }
+
+        OpenInstances without(String host, int port) {
+            if (!contains(host, port)) {
+                return this;
+            }
+            long key = HostPortKeys.pack(host, port);
+            if (key != HostPortKeys.INVALID) {
+                long[] newKeys = new long[keys.length - 1];
+                int index = 0;
+                for (long k : keys) {
+                    if (k != key) {
+                        newKeys[index++] = k;
+                    }
+                }
+                return new OpenInstances(newKeys, others);
+            }
+            int[] ports = others.get(host);
+            Map<String, int[]> newOthers = new HashMap<>(others);
+            if (ports.length == 1) {
+                newOthers.remove(host);
+            } else {
+                int[] newPorts = new int[ports.length - 1];
+                int index = 0;
+                for (int p : ports) {
+                    if (p != port) {
+                        newPorts[index++] = p;
+                    }
+                }
+                newOthers.put(host, newPorts);
+            }
+            return new OpenInstances(keys, Collections.unmodifiableMap(newOthers));
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.tencent.polaris.common.registry;
+
+import com.tencent.polaris.common.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 接口级注册时，按 host:port 与心跳状态对实例分组，每组由一个定时任务维持心跳。
+ * <p>
+ * SDK 自动心跳为每个实例单独维护一个定时任务，一个提供者导出数百个接口时会产生同样数量的定时任务；
+ * 这里每个 TTL 周期由组的定时任务把组内所有实例的心跳交给发送线程池并发发送，上一次心跳仍未返回的实例跳过本轮。
+ * SDK 没有批量心跳接口，因此发往服务端的心跳请求数与 SDK 自动心跳相同，减少的只是客户端的定时任务。
+ * 心跳失败的实例移入同一 host:port 的失败组，恢复后移回，状态变化时各记录一次日志。实例注销后从组内移除，组为空时停止任务。
+ */
+public class GroupedHeartbeat {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GroupedHeartbeat.class);
+
+    private static final LongAdder HEARTBEATS = MetricRegistry.counter("polaris_dubbo_grouped_heartbeat_total");
+
+    private static final LongAdder FAILURES = MetricRegistry.counter("polaris_dubbo_grouped_heartbeat_fail_total");
+
+    private static final LongAdder SKIPPED = MetricRegistry.counter("polaris_dubbo_grouped_heartbeat_skip_total");
+
+    private static final int SENDER_THREADS = 4;
+
+    private final PolarisOperator operator;
+
+    private final ScheduledExecutorService executor;
+
+    private final ExecutorService sender;
+
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+
+    GroupedHeartbeat(PolarisOperator operator) {
+        this.operator = operator;
+        AtomicInteger index = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(1, r -> {
+            Thread thread = new Thread(r, "polaris-dubbo-grouped-heartbeat-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger senderIndex = new AtomicInteger();
+        this.sender = Executors.newFixedThreadPool(SENDER_THREADS, r -> {
+            Thread thread = new Thread(r, "polaris-dubbo-grouped-heartbeat-sender-" + senderIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 实例注册成功后加入所在 host:port 的心跳组，并立即发送一次心跳
+     */
+    public void add(String service, String host, int port) {
+        join(service, host, port, true).send(service);
+    }
+
+    public void remove(String service, String host, int port) {
+        leave(service, host, port, true);
+        leave(service, host, port, false);
+    }
+
+    public void destroy() {
+        executor.shutdownNow();
+        sender.shutdownNow();
+        groups.clear();
+    }
+
+    private Group join(String service, String host, int port, boolean healthy) {
+        return groups.compute(groupKey(host, port, healthy), (key, group) -> {
+            if (null == group) {
+                Group created = new Group(host, port, healthy);
+                long periodMilli = TimeUnit.SECONDS.toMillis(operator.getPolarisConfig().getTtl());
+                created.future = executor.scheduleAtFixedRate(created::beat, periodMilli, periodMilli,
+                        TimeUnit.MILLISECONDS);
+                LOGGER.info("[POLARIS] start grouped heartbeat for {} every {}ms", key, periodMilli);
+                group = created;
+            }
+            group.services.add(service);
+            return group;
+        });
+    }
+
+    private boolean leave(String service, String host, int port, boolean healthy) {
+        boolean[] removed = new boolean[1];
+        groups.computeIfPresent(groupKey(host, port, healthy), (key, group) -> {
+            removed[0] = group.services.remove(service);
+            if (!group.services.isEmpty()) {
+                return group;
+            }
+            group.future.cancel(false);
+            LOGGER.info("[POLARIS] stop grouped heartbeat for {}", key);
+            return null;
+        });
+        return removed[0];
+    }
+
+    /**
+     * 心跳结果与所在组的状态不一致时移到另一组，实例已注销时不再加入
+     */
+    private void onResult(Group group, String service, boolean success) {
+        if (success == group.healthy) {
+            return;
+        }
+        if (!leave(service, group.host, group.port, group.healthy)) {
+            return;
+        }
+        join(service, group.host, group.port, success);
+        if (success) {
+            LOGGER.info("[POLARIS] heartbeat of service {}, {}:{} recovered", service, group.host, group.port);
+        }
+    }
+
+    private static String groupKey(String host, int port, boolean healthy) {
+        return host + ":" + port + (healthy ? "" : "/failing");
+    }
+
+    private class Group {
+
+        private final String host;
+
+        private final int port;
+
+        private final boolean healthy;
+
+        private final Set<String> services = ConcurrentHashMap.newKeySet();
+
+        /**
+         * 心跳已提交但尚未返回的服务
+         */
+        private final Set<String> sending = ConcurrentHashMap.newKeySet();
+
+        private volatile ScheduledFuture<?> future;
+
+        Group(String host, int port, boolean healthy) {
+            this.host = host;
+            this.port = port;
+            this.healthy = healthy;
+        }
+
+        void beat() {
+            for (String service : services) {
+                send(service);
+            }
+        }
+
+        void send(String service) {
+            if (!sending.add(service)) {
+                SKIPPED.increment();
+                return;
+            }
+            try {
+                sender.execute(() -> {
+                    boolean success = false;
+                    try {
+                        operator.heartbeat(service, host, port);
+                        HEARTBEATS.increment();
+                        success = true;
+                    } catch (Throwable e) {
+                        FAILURES.increment();
+                        if (healthy) {
+                            LOGGER.warn("[POLARIS] fail to heartbeat service {}, {}:{}, {}", service, host, port,
+                                    e.toString());
+                        }
+                    } finally {
+                        sending.remove(service);
+                    }
+                    onResult(this, service, success);
+                });
+            } catch (RejectedExecutionException e) {
+                sending.remove(service);
+            }
+        }
+    }
+}
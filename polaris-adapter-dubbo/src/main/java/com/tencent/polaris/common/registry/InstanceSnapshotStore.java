@@ -0,0 +1,263 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.registry;
+
+import com.tencent.polaris.api.pojo.DefaultInstance;
+import com.tencent.polaris.api.pojo.Instance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按服务保存实例列表的本地快照，用于冷启动时在连上北极星之前直接提供实例。
+ * <p>
+ * 快照为紧凑的二进制格式，读取时一次性读入堆内缓冲区后解析，不保留文件映射与句柄；文件头记录实例列表的版本号
+ * （由实例 ID 与 revision 计算），版本号不变时不重复写入。写入先写临时文件再原子替换，损坏或版本不兼容的快照会被忽略。
+ * <p>
+ * 快照保存路由会读取的全部实例字段（含 priority、logicSet），恢复出的实例与在线拉取的实例路由结果一致。
+ */
+public class InstanceSnapshotStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InstanceSnapshotStore.class);
+
+    private static final int MAGIC = 0x504C5253;
+
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * 单个实例序列化后的最小字节数：10 个字符串长度、端口、权重、优先级、2 个布尔值以及元数据个数
+     */
+    private static final int MIN_INSTANCE_BYTES = 10 * 4 + 4 + 4 + 4 + 2 + 4;
+
+    /**
+     * 单个元数据键值对序列化后的最小字节数
+     */
+    private static final int MIN_ENTRY_BYTES = 2 * 4;
+
+    private final Path directory;
+
+    private final String namespace;
+
+    private final Map<String, Long> savedRevisions = new ConcurrentHashMap<>();
+
+    public InstanceSnapshotStore(String directory, String namespace) {
+        this.directory = Paths.get(directory);
+        this.namespace = namespace;
+    }
+
+    /**
+     * @return 快照中的实例列表，没有快照或快照不可用时返回 null
+     */
+    public Instance[] load(String service) {
+        Path file = fileOf(service);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                LOGGER.warn("[POLARIS] ignore incompatible instance snapshot {}", file);
+                return null;
+            }
+            long revision = buffer.getLong();
+            int count = readCount(buffer, MIN_INSTANCE_BYTES);
+            Instance[] instances = new Instance[count];
+            for (int i = 0; i < count; i++) {
+                instances[i] = readInstance(buffer, service);
+            }
+            savedRevisions.put(service, revision);
+            LOGGER.info("[POLARIS] load {} instances of service {} from snapshot {}", count, service, file);
+            return instances;
+        } catch (BufferUnderflowException e) {
+            LOGGER.warn("[POLARIS] ignore corrupted instance snapshot {}", file);
+            return null;
+        } catch (Exception e) {
+            LOGGER.warn("[POLARIS] fail to load instance snapshot {}, {}", file, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 保存最新的实例列表，与上次保存的版本相同时跳过
+     */
+    public void save(String service, Instance[] instances) {
+        if (null == instances) {
+            return;
+        }
+        long revision = revisionOf(instances);
+        Long saved = savedRevisions.get(service);
+        if (null != saved && saved == revision) {
+            return;
+        }
+        Path file = fileOf(service);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 * instances.length + 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(revision);
+            out.writeInt(instances.length);
+            for (Instance instance : instances) {
+                writeInstance(out, instance);
+            }
+            out.flush();
+            Files.createDirectories(directory);
+            Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            savedRevisions.put(service, revision);
+        } catch (Exception e) {
+            LOGGER.warn("[POLARIS] fail to save instance snapshot {}, {}", file, e.toString());
+        }
+    }
+
+    private Path fileOf(String service) {
+        return directory.resolve(sanitize(namespace) + "#" + sanitize(service) + ".snapshot");
+    }
+
+    private static String sanitize(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            builder.append(Character.isLetterOrDigit(c) || c == '.' || c == '-' || c == '_' ? c : '_');
+        }
+        return builder.toString();
+    }
+
+    private static long revisionOf(Instance[] instances) {
+        long hash = instances.length;
+        for (Instance instance : instances) {
+            hash = hash * 31 + String.valueOf(instance.getId()).hashCode();
+            hash = hash * 31 + String.valueOf(instance.getRevision()).hashCode();
+            hash = hash * 31 + (instance.isHealthy() ? 1 : 0) + (instance.isIsolated() ? 2 : 0);
+            hash = hash * 31 + instance.getWeight();
+            hash = hash * 31 + instance.getPriority();
+        }
+        return hash;
+    }
+
+    private static void writeInstance(DataOutputStream out, Instance instance) throws IOException {
+        writeString(out, instance.getId());
+        writeString(out, instance.getHost());
+        out.writeInt(instance.getPort());
+        writeString(out, instance.getProtocol());
+        writeString(out, instance.getVersion());
+        writeString(out, instance.getRevision());
+        out.writeInt(instance.getWeight());
+        out.writeInt(instance.getPriority());
+        out.writeBoolean(instance.isHealthy());
+        out.writeBoolean(instance.isIsolated());
+        writeString(out, instance.getRegion());
+        writeString(out, instance.getZone());
+        writeString(out, instance.getCampus());
+        writeString(out, instance.getLogicSet());
+        Map<String, String> metadata = instance.getMetadata();
+        out.writeInt(null == metadata ? 0 : metadata.size());
+        if (null != metadata) {
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        }
+    }
+
+    private Instance readInstance(ByteBuffer buffer, String service) {
+        DefaultInstance instance = new DefaultInstance();
+        instance.setNamespace(namespace);
+        instance.setService(service);
+        instance.setId(readString(buffer));
+        instance.setHost(readString(buffer));
+        instance.setPort(buffer.getInt());
+        instance.setProtocol(readString(buffer));
+        instance.setVersion(readString(buffer));
+        instance.setRevision(readString(buffer));
+        instance.setWeight(buffer.getInt());
+        instance.setPriority(buffer.getInt());
+        instance.setHealthy(buffer.get() != 0);
+        instance.setIsolated(buffer.get() != 0);
+        instance.setRegion(readString(buffer));
+        instance.setZone(readString(buffer));
+        instance.setCampus(readString(buffer));
+        instance.setLogicSet(readString(buffer));
+        int size = readCount(buffer, MIN_ENTRY_BYTES);
+        Map<String, String> metadata = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            metadata.put(readString(buffer), readString(buffer));
+        }
+        instance.setMetadata(metadata);
+        return instance;
+    }
+
+    /**
+     * 字符串以长度 + UTF-8 字节保存，长度 -1 表示 null
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (null == value) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 读取元素个数，并按每个元素的最小字节数校验剩余数据足够，避免损坏的文件导致按错误的个数分配内存
+     */
+    private static int readCount(ByteBuffer buffer, int minElementBytes) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / minElementBytes) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+}
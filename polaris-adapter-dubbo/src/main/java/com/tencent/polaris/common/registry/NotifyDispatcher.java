@@ -0,0 +1,101 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.registry;
+
+import com.tencent.polaris.common.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务变更通知的分发器，按服务名分条带（stripe）执行：同一服务的通知在同一线程上按顺序执行，
+ * 不同服务的通知并行执行，避免某个服务刷新缓慢时阻塞其他服务，也不再占用 SDK 的回调线程。
+ */
+public class NotifyDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NotifyDispatcher.class);
+
+    private static final LongAdder DISPATCHED = MetricRegistry.counter("polaris_dubbo_notify_dispatch_total");
+
+    private static final LongAdder DISPATCH_LATENCY = MetricRegistry.counter(
+            "polaris_dubbo_notify_dispatch_latency_millis_total");
+
+    private final ThreadPoolExecutor[] stripes;
+
+    private final String queueDepthGauge;
+
+    public NotifyDispatcher(String name, int threads) {
+        this.stripes = new ThreadPoolExecutor[Math.max(threads, 1)];
+        for (int i = 0; i < stripes.length; i++) {
+            String threadName = "polaris-dubbo-notify-" + name + "-" + i;
+            stripes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.queueDepthGauge = MetricRegistry.instanceGauge("polaris_dubbo_notify_queue_depth_" + name,
+                this::getQueueDepth);
+    }
+
+    public void execute(String service, Runnable task) {
+        long enqueueNanos = System.nanoTime();
+        try {
+            stripes[stripe(service)].execute(() -> {
+                DISPATCHED.increment();
+                DISPATCH_LATENCY.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueueNanos));
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    LOGGER.error("[POLARIS] fail to notify change of service {}", service, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("[POLARIS] notify dispatcher closed, drop change of service {}", service);
+        }
+    }
+
+    /**
+     * @return 所有条带中等待执行的通知数量
+     */
+    public long getQueueDepth() {
+        long depth = 0;
+        for (ThreadPoolExecutor stripe : stripes) {
+            depth += stripe.getQueue().size();
+        }
+        return depth;
+    }
+
+    public void close() {
+        MetricRegistry.unregister(queueDepthGauge);
+        for (ThreadPoolExecutor stripe : stripes) {
+            stripe.shutdownNow();
+        }
+    }
+
+    private int stripe(String service) {
+        int hash = null == service ? 0 : service.hashCode();
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % stripes.length;
+    }
+}
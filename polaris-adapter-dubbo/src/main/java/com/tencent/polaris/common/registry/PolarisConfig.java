@@ -17,6 +17,7 @@
 
 package com.tencent.polaris.common.registry;
 
+import java.nio.file.Paths;
 import java.util.Map;
 
 import com.tencent.polaris.common.utils.Consts;
@@ -37,6 +38,44 @@ public class PolarisConfig {
 
     private final int ttl;
 
+    private final boolean stateRouterEnabled;
+
+    private final boolean routeRuleCompileEnabled;
+
+    private final String nearbyLevel;
+
+    private final long notifyCoalesceWindow;
+
+    private final long notifyCoalesceMaxDelay;
+
+    private final int notifyThreads;
+
+    private final int registerConcurrency;
+
+    private final boolean groupedHeartbeatEnabled;
+
+    private final long deregisterTimeout;
+
+    private final String warmStartDir;
+
+    private final boolean lazySubscribeEnabled;
+
+    private final long lazySubscribeIdleTimeout;
+
+    private final long serviceCatalogMaxStaleness;
+
+    private final int reportQueueSize;
+
+    private final boolean reportCallerRunsOnFull;
+
+    private final long reportAggregateWindow;
+
+    private final int reportAggregateMaxSamples;
+
+    private final String localRegion;
+
+    private final String localZone;
+
     private final PolarisOperators.OperatorType operatorType;
 
     public PolarisConfig(PolarisOperators.OperatorType operatorType, String host, int port, Map<String, String> parameters) {
@@ -58,9 +97,68 @@ public class PolarisConfig {
             }
         }
         this.ttl = healthTTL;
+        // 默认使用原有的 Router 实现，设置为 state 时启用基于 BitList 的 StateRouter
+        this.stateRouterEnabled = Consts.ROUTER_MODE_STATE.equalsIgnoreCase(parameters.get(Consts.KEY_ROUTER_MODE));
+        // 默认每次都交给 SDK 的路由链处理，设置为 true 时将路由规则编译为本地匹配器
+        this.routeRuleCompileEnabled = Boolean.parseBoolean(parameters.get(Consts.KEY_ROUTER_RULE_COMPILE));
+        // 就近路由默认关闭，可设置为 zone 或 region，本地所在的地域需要通过参数指定
+        this.nearbyLevel = parameters.get(Consts.KEY_ROUTER_NEARBY);
+        this.localRegion = parameters.get(Consts.KEY_LOCAL_REGION);
+        this.localZone = parameters.get(Consts.KEY_LOCAL_ZONE);
+        // 服务变更通知的合并窗口与最大延迟，单位毫秒，窗口设置为 0 时不合并
+        this.notifyCoalesceWindow = parseLong(parameters, Consts.KEY_NOTIFY_COALESCE_WINDOW,
+                Consts.DEFAULT_NOTIFY_COALESCE_WINDOW);
+        this.notifyCoalesceMaxDelay = parseLong(parameters, Consts.KEY_NOTIFY_COALESCE_MAX_DELAY,
+                Consts.DEFAULT_NOTIFY_COALESCE_MAX_DELAY);
+        // 服务变更通知按服务名分条带执行的线程数
+        this.notifyThreads = (int) parseLong(parameters, Consts.KEY_NOTIFY_THREADS,
+                Math.min(Runtime.getRuntime().availableProcessors(), 4));
+        // 提供者 check=false 的注册异步执行的并发数，默认为 0 按原有方式逐个同步注册
+        this.registerConcurrency = (int) parseLong(parameters, Consts.KEY_REGISTER_CONCURRENCY, 0);
+        // 接口级注册时同一 host:port 的实例按组由一个心跳任务维持，默认使用 SDK 的单实例自动心跳
+        this.groupedHeartbeatEnabled = Consts.HEARTBEAT_MODE_GROUPED.equalsIgnoreCase(
+                parameters.get(Consts.KEY_HEARTBEAT_MODE));
+        // 注册中心销毁时并行注销实例的整体等待时间，单位毫秒
+        this.deregisterTimeout = parseLong(parameters, Consts.KEY_DEREGISTER_TIMEOUT, Consts.DEFAULT_DEREGISTER_TIMEOUT);
+        // 开启后将实例列表保存为本地快照，冷启动时先使用快照，未开启时为 null
+        if ("true".equalsIgnoreCase(parameters.get(Consts.KEY_WARM_START))) {
+            String dir = parameters.get(Consts.KEY_WARM_START_DIR);
+            this.warmStartDir = null == dir || dir.length() == 0 ? Paths.get(System.getProperty("user.home"), "polaris",
+                    "dubbo", "snapshot").toString() : dir;
+        } else {
+            this.warmStartDir = null;
+        }
+        // 开启后接口级引用在首次调用时才拉取实例、监听变更，空闲超时（毫秒）大于 0 时空闲的订阅会被取消
+        this.lazySubscribeEnabled = "true".equalsIgnoreCase(parameters.get(Consts.KEY_LAZY_SUBSCRIBE));
+        this.lazySubscribeIdleTimeout = parseLong(parameters, Consts.KEY_LAZY_SUBSCRIBE_IDLE_TIMEOUT, 0);
+        // 应用级服务发现缓存的服务名列表允许的最大过期时间，单位毫秒
+        this.serviceCatalogMaxStaleness = parseLong(parameters, Consts.KEY_SERVICE_CATALOG_MAX_STALENESS,
+                Consts.DEFAULT_SERVICE_CATALOG_MAX_STALENESS);
+        // 调用结果异步上报的队列长度，默认为 0 在调用线程上同步上报；队列满时默认丢弃，可设置为 caller_runs 改为同步上报，
+        // 携带熔断统计的结果总是同步上报
+        this.reportQueueSize = (int) parseLong(parameters, Consts.KEY_REPORT_QUEUE_SIZE, 0);
+        this.reportCallerRunsOnFull = Consts.REPORT_FULL_POLICY_CALLER_RUNS.equalsIgnoreCase(
+                parameters.get(Consts.KEY_REPORT_FULL_POLICY));
+        // 调用结果预聚合的窗口，单位毫秒，默认为 0 不聚合；每个窗口内每个 (服务, 方法, 实例) 最多上报的结果数
+        this.reportAggregateWindow = parseLong(parameters, Consts.KEY_REPORT_AGGREGATE_WINDOW, 0);
+        this.reportAggregateMaxSamples = (int) parseLong(parameters, Consts.KEY_REPORT_AGGREGATE_MAX_SAMPLES,
+                Consts.DEFAULT_REPORT_AGGREGATE_MAX_SAMPLES);
         LOG.info("[Common] construct polarisConfig {}", this);
     }
 
+    private static long parseLong(Map<String, String> parameters, String key, long defaultValue) {
+        String value = parameters.get(key);
+        if (null == value || value.length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (Exception e) {
+            LOG.info("[Common] fail to convert {} {}", key, value, e);
+            return defaultValue;
+        }
+    }
+
     private void initAddress(String host, int port, Map<String, String> parameters) {
         int discoverPort = 8091;
         int configPort = 8093;
@@ -103,6 +201,82 @@ public class PolarisConfig {
         return ttl;
     }
 
+    public boolean isStateRouterEnabled() {
+        return stateRouterEnabled;
+    }
+
+    public boolean isRouteRuleCompileEnabled() {
+        return routeRuleCompileEnabled;
+    }
+
+    public long getNotifyCoalesceWindow() {
+        return notifyCoalesceWindow;
+    }
+
+    public long getNotifyCoalesceMaxDelay() {
+        return notifyCoalesceMaxDelay;
+    }
+
+    public int getNotifyThreads() {
+        return notifyThreads;
+    }
+
+    public int getRegisterConcurrency() {
+        return registerConcurrency;
+    }
+
+    public boolean isGroupedHeartbeatEnabled() {
+        return groupedHeartbeatEnabled;
+    }
+
+    public long getDeregisterTimeout() {
+        return deregisterTimeout;
+    }
+
+    public String getWarmStartDir() {
+        return warmStartDir;
+    }
+
+    public boolean isLazySubscribeEnabled() {
+        return lazySubscribeEnabled;
+    }
+
+    public long getLazySubscribeIdleTimeout() {
+        return lazySubscribeIdleTimeout;
+    }
+
+    public long getServiceCatalogMaxStaleness() {
+        return serviceCatalogMaxStaleness;
+    }
+
+    public int getReportQueueSize() {
+        return reportQueueSize;
+    }
+
+    public boolean isReportCallerRunsOnFull() {
+        return reportCallerRunsOnFull;
+    }
+
+    public long getReportAggregateWindow() {
+        return reportAggregateWindow;
+    }
+
+    public int getReportAggregateMaxSamples() {
+        return reportAggregateMaxSamples;
+    }
+
+    public String getNearbyLevel() {
+        return nearbyLevel;
+    }
+
+    public String getLocalRegion() {
+        return localRegion;
+    }
+
+    public String getLocalZone() {
+        return localZone;
+    }
+
     @Override
     public String toString() {
         return "PolarisConfig{" +
@@ -111,6 +285,25 @@ public class PolarisConfig {
                 ", configAddress='" + configAddress + '\'' +
                 ", token='" + token + '\'' +
                 ", ttl=" + ttl +
+                ", stateRouterEnabled=" + stateRouterEnabled +
+                ", routeRuleCompileEnabled=" + routeRuleCompileEnabled +
+                ", nearbyLevel='" + nearbyLevel + '\'' +
+                ", notifyCoalesceWindow=" + notifyCoalesceWindow +
+                ", notifyCoalesceMaxDelay=" + notifyCoalesceMaxDelay +
+                ", notifyThreads=" + notifyThreads +
+                ", registerConcurrency=" + registerConcurrency +
+                ", groupedHeartbeatEnabled=" + groupedHeartbeatEnabled +
+                ", deregisterTimeout=" + deregisterTimeout +
+                ", warmStartDir='" + warmStartDir + '\'' +
+                ", lazySubscribeEnabled=" + lazySubscribeEnabled +
+                ", lazySubscribeIdleTimeout=" + lazySubscribeIdleTimeout +
+                ", serviceCatalogMaxStaleness=" + serviceCatalogMaxStaleness +
+                ", reportQueueSize=" + reportQueueSize +
+                ", reportCallerRunsOnFull=" + reportCallerRunsOnFull +
+                ", reportAggregateWindow=" + reportAggregateWindow +
+                ", reportAggregateMaxSamples=" + reportAggregateMaxSamples +
+                ", localRegion='" + localRegion + '\'' +
+                ", localZone='" + localZone + '\'' +
                 ", operatorType=" + operatorType +
                 '}';
     }
@@ -16,10 +16,12 @@
 
 package com.tencent.polaris.common.registry;
 
+import com.tencent.polaris.api.config.consumer.ServiceRouterConfig;
 import com.tencent.polaris.api.core.ConsumerAPI;
 import com.tencent.polaris.api.core.ProviderAPI;
 import com.tencent.polaris.api.exception.PolarisException;
 import com.tencent.polaris.api.listener.ServiceListener;
+import com.tencent.polaris.api.plugin.circuitbreaker.ResourceStat;
 import com.tencent.polaris.api.plugin.circuitbreaker.entity.InstanceResource;
 import com.tencent.polaris.api.plugin.circuitbreaker.entity.Resource;
 import com.tencent.polaris.api.plugin.server.ServerConnector;
@@ -38,6 +40,7 @@ import com.tencent.polaris.api.rpc.GetHealthyInstancesRequest;
 import com.tencent.polaris.api.rpc.GetServiceRuleRequest;
 import com.tencent.polaris.api.rpc.GetServicesRequest;
 import com.tencent.polaris.api.rpc.InstanceDeregisterRequest;
+import com.tencent.polaris.api.rpc.InstanceHeartbeatRequest;
 import com.tencent.polaris.api.rpc.InstanceRegisterRequest;
 import com.tencent.polaris.api.rpc.InstanceRegisterResponse;
 import com.tencent.polaris.api.rpc.InstancesResponse;
@@ -54,6 +57,10 @@ import com.tencent.polaris.circuitbreak.api.pojo.CheckResult;
 import com.tencent.polaris.circuitbreak.factory.CircuitBreakAPIFactory;
 import com.tencent.polaris.client.api.SDKContext;
 import com.tencent.polaris.client.pojo.ServiceRuleByProto;
+import com.tencent.polaris.common.report.GovernanceContext;
+import com.tencent.polaris.common.report.InvokeResult;
+import com.tencent.polaris.common.report.InvokeResultReporter;
+import com.tencent.polaris.common.report.InvokeStatsAggregator;
 import com.tencent.polaris.common.utils.Consts;
 import com.tencent.polaris.configuration.api.core.ConfigFilePublishService;
 import com.tencent.polaris.configuration.api.core.ConfigFileService;
@@ -105,15 +112,41 @@ public class PolarisOperator {
 
     private RouterAPI routerAPI;
 
+    /**
+     * SDK 路由链去掉规则路由后的剩余部分，本地已按编译后的路由规则选出目标实例时使用
+     */
+    private ProcessRoutersRequest.RouterNamesGroup routersWithoutRule;
+
     private CircuitBreakAPI circuitBreakAPI;
 
     private ConfigFileService configFileAPI;
 
     private ConfigFilePublishService configFilePublishAPI;
 
+    private final CircuitBreakerStatusIndex circuitBreakerStatusIndex = new CircuitBreakerStatusIndex(this);
+
+    private final GroupedHeartbeat groupedHeartbeat = new GroupedHeartbeat(this);
+
+    /**
+     * 调用结果的异步上报管道，只有服务治理的 operator 会上报调用结果；report_queue_size 未配置时为 null，在调用线程上同步上报
+     */
+    private final InvokeResultReporter invokeResultReporter;
+
+    /**
+     * 调用结果的窗口预聚合，只在服务治理的 operator 上创建，report_aggregate_window 配置为 0 时为 null；开启后优先于异步上报管道
+     */
+    private final InvokeStatsAggregator invokeStatsAggregator;
+
     PolarisOperator(PolarisOperators.OperatorType operatorType, String host, int port, Map<String, String> parameters, BootConfigHandler... handlers) {
         polarisConfig = new PolarisConfig(operatorType, host, port, parameters);
         init(operatorType, parameters, handlers);
+        boolean governance = operatorType == PolarisOperators.OperatorType.GOVERNANCE;
+        invokeResultReporter = governance && polarisConfig.getReportQueueSize() > 0 ? new InvokeResultReporter(
+                polarisConfig.getReportQueueSize(), polarisConfig.isReportCallerRunsOnFull(), this::handleInvokeResult)
+                : null;
+        invokeStatsAggregator = governance && polarisConfig.getReportAggregateWindow() > 0 ? new InvokeStatsAggregator(
+                polarisConfig.getReportAggregateWindow(), polarisConfig.getReportAggregateMaxSamples(),
+                this::doReportInvokeResult) : null;
     }
 
     private void init(PolarisOperators.OperatorType operatorType, Map<String, String> parameters, BootConfigHandler... handlers) {
@@ -175,6 +208,7 @@ public class PolarisOperator {
         // 设置配置中心连接地址
         configuration.getConfigFile().getServerConnector()
                 .setAddresses(Collections.singletonList(polarisConfig.getConfigAddress()));
+        routersWithoutRule = routersWithoutRule(configuration.getConsumer().getServiceRouter());
         sdkContext = SDKContext.initContextByConfig(configuration);
         consumerAPI = DiscoveryAPIFactory.createConsumerAPIByContext(sdkContext);
         providerAPI = DiscoveryAPIFactory.createProviderAPIByContext(sdkContext);
@@ -207,6 +241,14 @@ public class PolarisOperator {
     }
 
     public void destroy() {
+        if (null != invokeStatsAggregator) {
+            invokeStatsAggregator.close();
+        }
+        if (null != invokeResultReporter) {
+            invokeResultReporter.close();
+        }
+        groupedHeartbeat.destroy();
+        circuitBreakerStatusIndex.destroy();
         sdkContext.close();
     }
 
@@ -219,6 +261,16 @@ public class PolarisOperator {
      */
     public void register(String service, String host, int port, String protocol, String version, int weight,
                          Map<String, String> metadata) {
+        register(service, host, port, protocol, version, weight, metadata, false);
+    }
+
+    /**
+     * 服务注册
+     *
+     * @param groupedHeartbeat 为 true 时不使用 SDK 的单实例自动心跳，由所在 host:port 的分组心跳任务维持
+     */
+    public void register(String service, String host, int port, String protocol, String version, int weight,
+                         Map<String, String> metadata, boolean groupedHeartbeat) {
         LOGGER.info(
                 "[POLARIS] start to register: service {}, host {}, port {}， protocol {}, version {}, weight {}, metadata {}",
                 service, host, port, protocol, version, weight, metadata);
@@ -236,12 +288,29 @@ public class PolarisOperator {
         instanceRegisterRequest.setMetadata(metadata);
         instanceRegisterRequest.setProtocol(protocol);
         instanceRegisterRequest.setToken(token);
+        if (groupedHeartbeat) {
+            InstanceRegisterResponse response = providerAPI.register(instanceRegisterRequest);
+            LOGGER.info("register result is {} for service {}", response, service);
+            this.groupedHeartbeat.add(service, host, port);
+            return;
+        }
         InstanceRegisterResponse response = providerAPI.registerInstance(instanceRegisterRequest);
         LOGGER.info("register result is {} for service {}", response, service);
     }
 
+    public void heartbeat(String service, String host, int port) {
+        InstanceHeartbeatRequest instanceHeartbeatRequest = new InstanceHeartbeatRequest();
+        instanceHeartbeatRequest.setNamespace(polarisConfig.getNamespace());
+        instanceHeartbeatRequest.setService(service);
+        instanceHeartbeatRequest.setHost(host);
+        instanceHeartbeatRequest.setPort(port);
+        instanceHeartbeatRequest.setToken(polarisConfig.getToken());
+        providerAPI.heartbeat(instanceHeartbeatRequest);
+    }
+
     public void deregister(String service, String host, int port) {
         LOGGER.info("[POLARIS] start to deregister: service {}, host {}, port {}", service, host, port);
+        groupedHeartbeat.remove(service, host, port);
         InstanceDeregisterRequest instanceDeregisterRequest = new InstanceDeregisterRequest();
         instanceDeregisterRequest.setNamespace(polarisConfig.getNamespace());
         instanceDeregisterRequest.setService(service);
@@ -286,22 +355,88 @@ public class PolarisOperator {
     }
 
     /**
-     * 调用CONSUMER_API上报服务请求结果
+     * 调用CONSUMER_API上报服务请求结果，开启预聚合时只做本地计数，开启异步上报时只放入队列，由后台线程批量上报
      *
      * @param delay 本次服务调用延迟，单位ms
      */
     public void reportInvokeResult(String service, String method, String host, int port, String callerIp, long delay, RetStatus retStatus,
                                    int code) {
+        if (null != invokeStatsAggregator) {
+            invokeStatsAggregator.record(service, method, host, port, callerIp, delay, retStatus, code);
+            return;
+        }
+        InvokeResult result = new InvokeResult(service, method, host, port, callerIp, delay, retStatus, code);
+        if (null != invokeResultReporter) {
+            invokeResultReporter.report(result);
+        } else {
+            doReportInvokeResult(result);
+        }
+    }
+
+    /**
+     * 上报一次调用的合并统计：熔断过滤器放行的调用只生成一条记录，由上报线程依次做实例级熔断统计与调用结果上报，
+     * 两者共用同一次计时与结果分类；实例级熔断统计不参与预聚合
+     */
+    public void reportInvokeContext(GovernanceContext context, String service, String method, String host, int port,
+                                    String callerIp) {
+        if (!context.isCircuitBreakerAttached()) {
+            reportInvokeResult(service, method, host, port, callerIp, context.getDelayMillis(),
+                    context.getRetStatus(), context.getCode());
+            return;
+        }
+        InvokeResult result = new InvokeResult(service, method, host, port, callerIp, context.getDelayMillis(),
+                context.getRetStatus(), context.getCode(), true);
+        if (null != invokeResultReporter) {
+            invokeResultReporter.report(result);
+        } else {
+            handleInvokeResult(result);
+        }
+    }
+
+    /**
+     * 上报实例级熔断统计
+     */
+    public void reportCircuitBreakerStat(GovernanceContext context, String service, String host, int port) {
+        reportCircuitBreakerStat(service, host, port, context.getCode(), context.getDelayMillis(),
+                context.getRetStatus());
+    }
+
+    private void reportCircuitBreakerStat(String service, String host, int port, int code, long delay,
+                                          RetStatus retStatus) {
+        Resource resource = new InstanceResource(new ServiceKey(polarisConfig.getNamespace(), service), host, port,
+                new ServiceKey());
+        circuitBreakAPI.report(new ResourceStat(resource, code, delay, retStatus));
+        circuitBreakerStatusIndex.onInvokeResult(service, host, port, retStatus);
+    }
+
+    private void handleInvokeResult(InvokeResult result) {
+        if (result.isCircuitBreakerStat()) {
+            reportCircuitBreakerStat(result.getService(), result.getHost(), result.getPort(), result.getCode(),
+                    result.getDelay(), result.getRetStatus());
+        }
+        if (null != invokeStatsAggregator) {
+            invokeStatsAggregator.record(result.getService(), result.getMethod(), result.getHost(), result.getPort(),
+                    result.getCallerIp(), result.getDelay(), result.getRetStatus(), result.getCode());
+        } else {
+            doReportInvokeResult(result);
+        }
+    }
+
+    private void doReportInvokeResult(InvokeResult result) {
+        String service = result.getService();
+        String host = result.getHost();
+        int port = result.getPort();
+        RetStatus retStatus = result.getRetStatus();
         ServiceCallResult serviceCallResult = new ServiceCallResult();
         serviceCallResult.setNamespace(polarisConfig.getNamespace());
         serviceCallResult.setService(service);
-        serviceCallResult.setMethod(method);
+        serviceCallResult.setMethod(result.getMethod());
         serviceCallResult.setHost(host);
         serviceCallResult.setPort(port);
-        serviceCallResult.setDelay(delay);
+        serviceCallResult.setDelay(result.getDelay());
         serviceCallResult.setRetStatus(retStatus);
-        serviceCallResult.setRetCode(code);
-        serviceCallResult.setCallerIp(callerIp);
+        serviceCallResult.setRetCode(result.getCode());
+        serviceCallResult.setCallerIp(result.getCallerIp());
         serviceCallResult.setCallerService(new ServiceKey(polarisConfig.getNamespace(), ""));
         try {
             consumerAPI.updateServiceCallResult(serviceCallResult);
@@ -314,6 +449,19 @@ public class PolarisOperator {
     }
 
     public List<Instance> route(String service, String method, Set<RouteArgument> arguments, List<Instance> instances) {
+        return processRouters(service, method, arguments, instances, null);
+    }
+
+    /**
+     * 路由规则已在本地匹配完成时，结果仍需经过 SDK 路由链中除规则路由外的其余路由（隔离、就近、全死全活等）
+     */
+    public List<Instance> routeWithoutRule(String service, String method, Set<RouteArgument> arguments,
+                                           List<Instance> instances) {
+        return processRouters(service, method, arguments, instances, routersWithoutRule);
+    }
+
+    private List<Instance> processRouters(String service, String method, Set<RouteArgument> arguments,
+                                          List<Instance> instances, ProcessRoutersRequest.RouterNamesGroup routers) {
         ServiceKey serviceKey = new ServiceKey(polarisConfig.getNamespace(), service);
         DefaultServiceInstances defaultServiceInstances = new DefaultServiceInstances(serviceKey, instances);
         SourceService serviceInfo = new SourceService();
@@ -322,10 +470,23 @@ public class PolarisOperator {
         request.setDstInstances(defaultServiceInstances);
         request.setMethod(method);
         request.setSourceService(serviceInfo);
+        if (null != routers) {
+            request.setRouters(routers);
+        }
         ProcessRoutersResponse processRoutersResponse = routerAPI.processRouters(request);
         return processRoutersResponse.getServiceInstances().getInstances();
     }
 
+    private static ProcessRoutersRequest.RouterNamesGroup routersWithoutRule(ServiceRouterConfig config) {
+        List<String> coreRouters = new ArrayList<>(config.getChain());
+        coreRouters.remove(ServiceRouterConfig.DEFAULT_ROUTER_RULE);
+        ProcessRoutersRequest.RouterNamesGroup routers = new ProcessRoutersRequest.RouterNamesGroup();
+        routers.setBeforeRouters(config.getBeforeChain());
+        routers.setCoreRouters(coreRouters);
+        routers.setAfterRouters(config.getAfterChain());
+        return routers;
+    }
+
     public Instance loadBalance(String service, String hashKey, List<Instance> instances) {
         ServiceKey serviceKey = new ServiceKey(polarisConfig.getNamespace(), service);
         DefaultServiceInstances defaultServiceInstances = new DefaultServiceInstances(serviceKey, instances);
@@ -343,8 +504,16 @@ public class PolarisOperator {
         if (null != circuitBreakerStatus) {
             return circuitBreakerStatus.getStatus() != CircuitBreakerStatus.Status.OPEN;
         }
-        Resource resource = new InstanceResource(new ServiceKey(instance.getNamespace(), instance.getService()),
-                instance.getHost(), instance.getPort(), new ServiceKey());
+        return checkCircuitBreakerPassing(instance.getNamespace(), instance.getService(), instance.getHost(),
+                instance.getPort());
+    }
+
+    public boolean checkCircuitBreakerPassing(String service, String host, int port) {
+        return checkCircuitBreakerPassing(polarisConfig.getNamespace(), service, host, port);
+    }
+
+    private boolean checkCircuitBreakerPassing(String namespace, String service, String host, int port) {
+        Resource resource = new InstanceResource(new ServiceKey(namespace, service), host, port, new ServiceKey());
         CircuitBreakerFlow circuitBreakerFlow = getSdkContext().getValueContext().getValue(
                 CircuitBreakerFlow.class.getCanonicalName());
         if (null != circuitBreakerFlow) {
@@ -382,10 +551,16 @@ public class PolarisOperator {
     }
 
     public List<ServiceInfo> getServices() {
+        return getServicesResponse().getServices();
+    }
+
+    /**
+     * @return 命名空间下的服务列表及服务端版本号
+     */
+    public ServicesResponse getServicesResponse() {
         GetServicesRequest getServicesRequest = new GetServicesRequest();
         getServicesRequest.setNamespace(polarisConfig.getNamespace());
-        ServicesResponse services = consumerAPI.getServices(getServicesRequest);
-        return services.getServices();
+        return consumerAPI.getServices(getServicesRequest);
     }
 
     public PolarisConfig getPolarisConfig() {
@@ -420,6 +595,10 @@ public class PolarisOperator {
         return circuitBreakAPI;
     }
 
+    public CircuitBreakerStatusIndex getCircuitBreakerStatusIndex() {
+        return circuitBreakerStatusIndex;
+    }
+
     protected static String formatCode(Object val) {
         return "POLARIS:" + val;
     }
@@ -28,7 +28,7 @@ import java.util.function.Function;
 
 public class PolarisOperators {
 
-    enum OperatorType {
+    public enum OperatorType {
         GOVERNANCE,
         CONFIG,
         METADATA_REPORT
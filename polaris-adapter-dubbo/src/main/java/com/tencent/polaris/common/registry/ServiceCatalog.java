@@ -0,0 +1,148 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.registry;
+
+import com.tencent.polaris.api.pojo.ServiceInfo;
+import com.tencent.polaris.api.rpc.ServicesResponse;
+import com.tencent.polaris.common.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 命名空间下服务名列表的内存缓存，首次查询时同步拉取，之后由后台定时刷新，查询时直接返回不可变的快照，不再访问网络。
+ * <p>
+ * 刷新周期为最大过期时间的一半；服务端返回的版本号未变化时跳过重建，保留原有快照对象。
+ * 后台刷新持续失败导致快照超过最大过期时间后，查询退化为同步拉取，拉取失败时直接向调用方抛出异常，不再返回过期快照。
+ */
+public class ServiceCatalog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceCatalog.class);
+
+    private static final LongAdder REFRESHES = MetricRegistry.counter("polaris_dubbo_service_catalog_refresh_total");
+
+    private static final LongAdder CHANGES = MetricRegistry.counter("polaris_dubbo_service_catalog_changed_total");
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "polaris-dubbo-service-catalog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Supplier<ServicesResponse> loader;
+
+    private final long maxStalenessMilli;
+
+    private volatile Set<String> services;
+
+    private volatile String revision;
+
+    private volatile long refreshedMillis;
+
+    private ScheduledFuture<?> refreshTask;
+
+    private volatile boolean closed;
+
+    public ServiceCatalog(Supplier<ServicesResponse> loader, long maxStalenessMilli) {
+        this.loader = loader;
+        this.maxStalenessMilli = Math.max(maxStalenessMilli, 1000);
+    }
+
+    /**
+     * @return 服务名的不可变快照，首次调用或快照已超过最大过期时间时同步拉取
+     */
+    public Set<String> getServices() {
+        Set<String> current = services;
+        if (null != current && !isStale()) {
+            return current;
+        }
+        synchronized (this) {
+            if (null != services && !isStale()) {
+                return services;
+            }
+            boolean first = null == services;
+            refresh();
+            if (first && !closed) {
+                long period = maxStalenessMilli / 2;
+                refreshTask = SCHEDULER.scheduleWithFixedDelay(this::scheduledRefresh, period, period,
+                        TimeUnit.MILLISECONDS);
+            }
+            return services;
+        }
+    }
+
+    public synchronized void close() {
+        closed = true;
+        if (null != refreshTask) {
+            refreshTask.cancel(false);
+        }
+    }
+
+    private boolean isStale() {
+        return System.currentTimeMillis() - refreshedMillis > maxStalenessMilli;
+    }
+
+    private synchronized void refresh() {
+        ServicesResponse response = loader.get();
+        REFRESHES.increment();
+        String newRevision = response.getRevision();
+        if (null != services && null != newRevision && !newRevision.isEmpty()
+                && Objects.equals(newRevision, revision)) {
+            refreshedMillis = System.currentTimeMillis();
+            return;
+        }
+        List<ServiceInfo> serviceInfos = response.getServices();
+        Set<String> names = new HashSet<>(null == serviceInfos ? 0 : serviceInfos.size() * 4 / 3 + 1);
+        if (null != serviceInfos) {
+            for (ServiceInfo serviceInfo : serviceInfos) {
+                names.add(serviceInfo.getService());
+            }
+        }
+        services = Collections.unmodifiableSet(names);
+        revision = newRevision;
+        CHANGES.increment();
+        refreshedMillis = System.currentTimeMillis();
+    }
+
+    private void scheduledRefresh() {
+        if (closed) {
+            return;
+        }
+        try {
+            refresh();
+        } catch (Exception e) {
+            long staleMillis = System.currentTimeMillis() - refreshedMillis;
+            if (staleMillis > maxStalenessMilli) {
+                LOGGER.error("[POLARIS] service catalog not refreshed for {} ms: {}", staleMillis, e.toString());
+            } else {
+                LOGGER.warn("[POLARIS] fail to refresh service catalog: {}", e.toString());
+            }
+        }
+    }
+}
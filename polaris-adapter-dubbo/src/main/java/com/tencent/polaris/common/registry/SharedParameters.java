@@ -0,0 +1,64 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.registry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 同一服务下实例参数的字符串驻留池：参数的 key 与 value 经过驻留后，内容相同的字符串只保留一份。
+ * <p>
+ * 同一服务的实例参数（方法列表、版本、应用名等）绝大部分相同，而每个实例的元数据都是单独反序列化出来的字符串。
+ * URL 会把参数复制到自己的 URLParam 中，不会保留传入的 map，因此这里只驻留字符串，不共享 map。
+ */
+public class SharedParameters {
+
+    /**
+     * 驻留池的容量上限，超过后清空重建，避免实例 ID、时间戳等每个实例都不同的值让驻留池无限增长
+     */
+    private static final int MAX_POOL_SIZE = 1 << 16;
+
+    private final Map<String, String> pool = new ConcurrentHashMap<>();
+
+    public String intern(String value) {
+        if (null == value) {
+            return null;
+        }
+        String interned = pool.get(value);
+        if (null != interned) {
+            return interned;
+        }
+        if (pool.size() >= MAX_POOL_SIZE) {
+            pool.clear();
+        }
+        interned = pool.putIfAbsent(value, value);
+        return null == interned ? value : interned;
+    }
+
+    /**
+     * @return 与 parameters 内容相同的新 map，key 与 value 均已驻留
+     */
+    public Map<String, String> intern(Map<String, String> parameters) {
+        Map<String, String> interned = new HashMap<>(parameters.size() * 4 / 3 + 1);
+        for (Map.Entry<String, String> entry : parameters.entrySet()) {
+            interned.put(intern(entry.getKey()), intern(entry.getValue()));
+        }
+        return interned;
+    }
+}
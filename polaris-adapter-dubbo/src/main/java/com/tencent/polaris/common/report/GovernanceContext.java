@@ -0,0 +1,178 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.report;
+
+import com.tencent.polaris.api.pojo.RetStatus;
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.circuitbreak.api.InvokeHandler;
+import com.tencent.polaris.circuitbreak.client.exception.CallAbortedException;
+import com.tencent.polaris.common.exception.PolarisBlockException;
+import com.tencent.polaris.common.loadbalance.InstanceStats;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Result;
+import org.apache.dubbo.rpc.RpcException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次调用的治理上下文，由上报过滤器与熔断过滤器共享：调用开始时只取一次 nanoTime，调用结束时只对结果分类一次，
+ * 两个过滤器都存在时由上报过滤器输出一条合并的统计记录，同时用于调用结果上报与实例级熔断统计。
+ * <p>
+ * 同一调用的过滤器回调在同一线程上依次执行，因此不需要加锁。
+ */
+public class GovernanceContext {
+
+    private static final String KEY = "polaris_governance_context";
+
+    private final long startNanos = System.nanoTime();
+
+    private final boolean reporterAttached;
+
+    private InstanceStats instanceStats;
+
+    private InvokeHandler invokeHandler;
+
+    private String circuitBreakerService;
+
+    private boolean completed;
+
+    private long delayNanos;
+
+    private RetStatus retStatus;
+
+    private int code;
+
+    private GovernanceContext(boolean reporterAttached) {
+        this.reporterAttached = reporterAttached;
+    }
+
+    /**
+     * 创建新的上下文并关联到调用上，集群重试时同一个 Invocation 会再次经过过滤器，因此每次调用都重新创建
+     *
+     * @param reporterAttached 是否由上报过滤器创建，为 true 时由上报过滤器负责输出合并的统计记录
+     */
+    public static GovernanceContext create(Invocation invocation, boolean reporterAttached) {
+        GovernanceContext context = new GovernanceContext(reporterAttached);
+        invocation.put(KEY, context);
+        return context;
+    }
+
+    public static GovernanceContext get(Invocation invocation) {
+        return (GovernanceContext) invocation.get(KEY);
+    }
+
+    /**
+     * 调用正常返回，业务异常按失败处理，只有第一次结束生效
+     */
+    public void onResponse(Result result) {
+        if (result.hasException()) {
+            complete(RetStatus.RetFail, -1);
+        } else {
+            complete(RetStatus.RetSuccess, 0);
+        }
+    }
+
+    /**
+     * 调用抛出异常，按限流、超时、熔断拒绝分类，只有第一次结束生效
+     */
+    public void onError(Throwable t) {
+        if (!(t instanceof RpcException)) {
+            complete(RetStatus.RetFail, -1);
+            return;
+        }
+        RpcException rpcException = (RpcException) t;
+        RetStatus status = RetStatus.RetFail;
+        if (isFlowControl(rpcException)) {
+            status = RetStatus.RetFlowControl;
+        }
+        if (rpcException.isTimeout()) {
+            status = RetStatus.RetTimeout;
+        }
+        if (rpcException.getCause() instanceof CallAbortedException) {
+            status = RetStatus.RetReject;
+        }
+        complete(status, rpcException.getCode());
+    }
+
+    private void complete(RetStatus status, int retCode) {
+        if (completed) {
+            return;
+        }
+        completed = true;
+        delayNanos = System.nanoTime() - startNanos;
+        retStatus = status;
+        code = retCode;
+        if (null != instanceStats) {
+            instanceStats.onComplete(delayNanos);
+            instanceStats = null;
+        }
+    }
+
+    private static boolean isFlowControl(RpcException rpcException) {
+        return rpcException.isLimitExceed() || (StringUtils.isNotBlank(rpcException.getMessage())
+                && rpcException.getMessage().contains(PolarisBlockException.PREFIX));
+    }
+
+    /**
+     * 实例被延迟感知的负载均衡引用时，记录在途请求数，调用结束时记录耗时
+     */
+    public void attachInstanceStats(InstanceStats stats) {
+        stats.onStart();
+        this.instanceStats = stats;
+    }
+
+    /**
+     * 熔断过滤器已经放行本次调用，调用结束时需要上报实例级熔断统计
+     */
+    public void attachCircuitBreaker(InvokeHandler handler, String service) {
+        this.invokeHandler = handler;
+        this.circuitBreakerService = service;
+    }
+
+    public boolean isReporterAttached() {
+        return reporterAttached;
+    }
+
+    public boolean isCircuitBreakerAttached() {
+        return null != invokeHandler;
+    }
+
+    public InvokeHandler getInvokeHandler() {
+        return invokeHandler;
+    }
+
+    public String getCircuitBreakerService() {
+        return circuitBreakerService;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public long getDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(delayNanos);
+    }
+
+    public RetStatus getRetStatus() {
+        return retStatus;
+    }
+
+    public int getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.report;
+
+import com.tencent.polaris.api.pojo.RetStatus;
+
+/**
+ * 一次调用的结果，由业务线程采集后交给 {@link InvokeResultReporter} 异步上报
+ */
+public class InvokeResult {
+
+    private final String service;
+
+    private final String method;
+
+    private final String host;
+
+    private final int port;
+
+    private final String callerIp;
+
+    private final long delay;
+
+    private final RetStatus retStatus;
+
+    private final int code;
+
+    private final boolean circuitBreakerStat;
+
+    long enqueueNanos;
+
+    public InvokeResult(String service, String method, String host, int port, String callerIp, long delay,
+                        RetStatus retStatus, int code) {
+        this(service, method, host, port, callerIp, delay, retStatus, code, false);
+    }
+
+    /**
+     * @param circuitBreakerStat 是否同时作为实例级熔断统计上报
+     */
+    public InvokeResult(String service, String method, String host, int port, String callerIp, long delay,
+                        RetStatus retStatus, int code, boolean circuitBreakerStat) {
+        this.service = service;
+        this.method = method;
+        this.host = host;
+        this.port = port;
+        this.callerIp = callerIp;
+        this.delay = delay;
+        this.retStatus = retStatus;
+        this.code = code;
+        this.circuitBreakerStat = circuitBreakerStat;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getCallerIp() {
+        return callerIp;
+    }
+
+    public long getDelay() {
+        return delay;
+    }
+
+    public RetStatus getRetStatus() {
+        return retStatus;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public boolean isCircuitBreakerStat() {
+        return circuitBreakerStat;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.report;
+
+import com.tencent.polaris.common.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 调用结果的异步上报管道：业务线程（包括异步调用回调所在的 Netty IO 线程）只把结果放入 {@link MpscRingBuffer}，
+ * 由后台线程批量取出后上报，队列为空时后台线程挂起，直到有新的结果放入。
+ * <p>
+ * 队列满时默认丢弃本次结果并计数，配置为 caller_runs 时改为在调用线程上直接上报；
+ * 携带实例级熔断统计的结果总是在调用线程上直接上报，不会被丢弃，避免过载时熔断器无法打开。
+ */
+public class InvokeResultReporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InvokeResultReporter.class);
+
+    private static final LongAdder ENQUEUED = MetricRegistry.counter("polaris_dubbo_report_enqueued_total");
+
+    private static final LongAdder DROPPED = MetricRegistry.counter("polaris_dubbo_report_dropped_total");
+
+    private static final LongAdder REPORTED = MetricRegistry.counter("polaris_dubbo_report_reported_total");
+
+    private static final int BATCH_SIZE = 256;
+
+    private static final long CLOSE_WAIT_MILLIS = 1000;
+
+    private final MpscRingBuffer<InvokeResult> queue;
+
+    private final boolean callerRunsOnFull;
+
+    private final Consumer<InvokeResult> handler;
+
+    private final Thread worker;
+
+    private final String queueDepthGauge;
+
+    private final String lagGauge;
+
+    /**
+     * 最近一次取出的结果在队列中等待的时间，单位毫秒，队列为空时为 0
+     */
+    private volatile long lagMillis;
+
+    /**
+     * 后台线程即将或已经挂起，生产者放入结果后需要唤醒
+     */
+    private volatile boolean parked;
+
+    private volatile boolean closed;
+
+    public InvokeResultReporter(int queueSize, boolean callerRunsOnFull, Consumer<InvokeResult> handler) {
+        this.queue = new MpscRingBuffer<>(queueSize);
+        this.callerRunsOnFull = callerRunsOnFull;
+        this.handler = handler;
+        this.worker = new Thread(this::drainLoop, "polaris-dubbo-report");
+        this.worker.setDaemon(true);
+        this.worker.start();
+        this.queueDepthGauge = MetricRegistry.instanceGauge("polaris_dubbo_report_queue_depth", queue::size);
+        this.lagGauge = MetricRegistry.instanceGauge("polaris_dubbo_report_lag_millis", () -> lagMillis);
+    }
+
+    public void report(InvokeResult result) {
+        if (!closed) {
+            result.enqueueNanos = System.nanoTime();
+            if (queue.offer(result)) {
+                ENQUEUED.increment();
+                if (parked) {
+                    parked = false;
+                    LockSupport.unpark(worker);
+                }
+                return;
+            }
+        }
+        if (callerRunsOnFull || result.isCircuitBreakerStat()) {
+            handle(result);
+        } else {
+            DROPPED.increment();
+        }
+    }
+
+    /**
+     * 停止后台线程，最多等待 1 秒上报队列中剩余的结果
+     */
+    public void close() {
+        MetricRegistry.unregister(queueDepthGauge);
+        MetricRegistry.unregister(lagGauge);
+        closed = true;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(CLOSE_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        while (!closed) {
+            int drained = queue.drain(this::handleQueued, BATCH_SIZE);
+            if (drained == 0) {
+                lagMillis = 0;
+                parked = true;
+                // 设置标记后再检查一次，避免错过标记设置前放入的结果
+                if (queue.size() == 0 && !closed) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+            }
+        }
+        queue.drain(this::handleQueued, queue.capacity());
+    }
+
+    private void handleQueued(InvokeResult result) {
+        lagMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - result.enqueueNanos);
+        handle(result);
+    }
+
+    private void handle(InvokeResult result) {
+        try {
+            handler.accept(result);
+            REPORTED.increment();
+        } catch (Throwable e) {
+            LOGGER.error("[POLARIS] fail to report invoke result of service {}", result.getService(), e);
+        }
+    }
+}
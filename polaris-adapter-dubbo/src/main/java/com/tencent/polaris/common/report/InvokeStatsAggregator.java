@@ -0,0 +1,378 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.report;
+
+import com.tencent.polaris.api.pojo.RetStatus;
+import com.tencent.polaris.common.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 调用结果的本地预聚合：按 (服务, 方法, 实例, RetStatus, 返回码) 使用 {@link LongAdder} 计数，
+ * 并记录固定分桶的耗时直方图，每个时间窗口结束时汇总上报。业务线程上通过线程私有的探测 key 查找统计，
+ * 已有统计的调用不创建任何对象，只在首次出现的 (服务, 方法, 实例) 与返回状态上创建统计对象。
+ * <p>
+ * SDK 的调用结果没有次数字段，窗口结束时每个 (服务, 方法, 实例) 最多上报 maxSamples 条结果，
+ * 按各返回状态、各耗时分桶的调用次数以最大余数法精确分配，分配不足一条的余量累计到后续窗口，
+ * 长期上报的错误率与实际一致。同一窗口的结果按平滑加权轮询交错上报，不会出现成组的连续失败。
+ */
+public class InvokeStatsAggregator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InvokeStatsAggregator.class);
+
+    private static final LongAdder RECORDED = MetricRegistry.counter("polaris_dubbo_report_aggregated_total");
+
+    private static final LongAdder FLUSHED = MetricRegistry.counter("polaris_dubbo_report_flushed_total");
+
+    /**
+     * 耗时分桶的上界（毫秒），最后一个分桶不设上界
+     */
+    private static final long[] BUCKET_BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    /**
+     * 连续多少个窗口没有调用后移除对应的统计
+     */
+    private static final int MAX_IDLE_WINDOWS = 60;
+
+    /**
+     * 业务线程查找统计时复用的 key，只用于查找，不会放入 stats
+     */
+    private static final ThreadLocal<StatsKey> PROBE = ThreadLocal.withInitial(StatsKey::new);
+
+    private final int maxSamples;
+
+    private final Consumer<InvokeResult> handler;
+
+    private final Map<StatsKey, InstanceMethodStats> stats = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flusher;
+
+    private final String keysGauge;
+
+    public InvokeStatsAggregator(long windowMilli, int maxSamples, Consumer<InvokeResult> handler) {
+        this.maxSamples = Math.max(maxSamples, 1);
+        this.handler = handler;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "polaris-dubbo-report-aggregator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleAtFixedRate(this::flush, windowMilli, windowMilli, TimeUnit.MILLISECONDS);
+        this.keysGauge = MetricRegistry.instanceGauge("polaris_dubbo_report_aggregate_keys", stats::size);
+    }
+
+    public void record(String service, String method, String host, int port, String callerIp, long delay,
+                       RetStatus retStatus, int code) {
+        StatsKey probe = PROBE.get().set(service, method, host, port);
+        InstanceMethodStats instanceMethodStats = stats.get(probe);
+        if (null == instanceMethodStats) {
+            instanceMethodStats = stats.computeIfAbsent(new StatsKey().set(service, method, host, port),
+                    key -> new InstanceMethodStats(key, callerIp));
+        }
+        instanceMethodStats.getOutcome(retStatus, code).record(delay);
+        RECORDED.increment();
+    }
+
+    /**
+     * 停止定时汇总，并汇总上报最后一个窗口
+     */
+    public void close() {
+        MetricRegistry.unregister(keysGauge);
+        flusher.shutdownNow();
+        flush();
+    }
+
+    synchronized void flush() {
+        try {
+            Iterator<InstanceMethodStats> iterator = stats.values().iterator();
+            while (iterator.hasNext()) {
+                InstanceMethodStats instanceMethodStats = iterator.next();
+                // 移除时恰好写入的调用会丢失，只会发生在已经连续空闲多个窗口的统计上
+                if (!flush(instanceMethodStats) && ++instanceMethodStats.idleWindows > MAX_IDLE_WINDOWS) {
+                    iterator.remove();
+                }
+            }
+        } catch (Throwable e) {
+            LOGGER.error("[POLARIS] fail to flush aggregated invoke results", e);
+        }
+    }
+
+    /**
+     * @return 本窗口是否有调用
+     */
+    private boolean flush(InstanceMethodStats instanceMethodStats) {
+        List<Cell> cells = new ArrayList<>();
+        long total = 0;
+        for (OutcomeStats outcome : instanceMethodStats.outcomes) {
+            long[] delta = new long[BUCKET_BOUNDS.length + 1];
+            long count = 0;
+            for (int b = 0; b < delta.length; b++) {
+                long sum = outcome.buckets[b].sum();
+                delta[b] = sum - outcome.flushedBuckets[b];
+                outcome.flushedBuckets[b] = sum;
+                count += delta[b];
+            }
+            long delaySum = outcome.delaySum.sum();
+            long meanDelay = count == 0 ? 0 : (delaySum - outcome.flushedDelaySum) / count;
+            outcome.flushedDelaySum = delaySum;
+            for (int b = 0; b < delta.length; b++) {
+                if (delta[b] > 0) {
+                    cells.add(new Cell(outcome, b, delta[b], representativeDelay(b, meanDelay)));
+                }
+            }
+            total += count;
+        }
+        if (total == 0) {
+            return false;
+        }
+        instanceMethodStats.idleWindows = 0;
+        int sampleCount = apportion(cells, total, Math.min(total, maxSamples));
+        StatsKey key = instanceMethodStats.key;
+        // 平滑加权轮询，各返回状态的结果均匀交错
+        for (int s = 0; s < sampleCount; s++) {
+            Cell selected = null;
+            for (Cell cell : cells) {
+                cell.current += cell.samples;
+                if (null == selected || cell.current > selected.current) {
+                    selected = cell;
+                }
+            }
+            selected.current -= sampleCount;
+            handler.accept(new InvokeResult(key.service, key.method, key.host, key.port,
+                    instanceMethodStats.callerIp, selected.delay, selected.outcome.retStatus, selected.outcome.code));
+            FLUSHED.increment();
+        }
+        return true;
+    }
+
+    /**
+     * 最大余数法分配上报条数，每个分桶的份额加上之前窗口累计的余量，分配后的余量留到后续窗口
+     *
+     * @return 分配的总条数
+     */
+    private static int apportion(List<Cell> cells, long total, long samples) {
+        int assigned = 0;
+        for (Cell cell : cells) {
+            cell.quota = (double) samples * cell.count / total + cell.outcome.residuals[cell.bucket];
+            cell.samples = (int) Math.max(Math.floor(cell.quota), 0);
+            assigned += cell.samples;
+        }
+        while (assigned < samples) {
+            Cell largest = cells.get(0);
+            for (Cell cell : cells) {
+                if (cell.quota - cell.samples > largest.quota - largest.samples) {
+                    largest = cell;
+                }
+            }
+            largest.samples++;
+            assigned++;
+        }
+        for (Cell cell : cells) {
+            cell.outcome.residuals[cell.bucket] = cell.quota - cell.samples;
+        }
+        return assigned;
+    }
+
+    /**
+     * 使用该返回状态本窗口的平均耗时，并限制在分桶的范围内
+     */
+    private static long representativeDelay(int bucket, long meanDelay) {
+        long lower = bucket == 0 ? 0 : BUCKET_BOUNDS[bucket - 1];
+        long upper = bucket < BUCKET_BOUNDS.length ? BUCKET_BOUNDS[bucket] : Long.MAX_VALUE;
+        return Math.min(Math.max(meanDelay, lower), upper);
+    }
+
+    private static int bucketOf(long delay) {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            if (delay <= BUCKET_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS.length;
+    }
+
+    /**
+     * 放入 stats 的 key 创建后不再修改；线程私有的探测 key 每次查找前重新设置
+     */
+    private static class StatsKey {
+
+        private String service;
+
+        private String method;
+
+        private String host;
+
+        private int port;
+
+        private int hash;
+
+        StatsKey set(String service, String method, String host, int port) {
+            this.service = service;
+            this.method = method;
+            this.host = host;
+            this.port = port;
+            int h = Objects.hashCode(service);
+            h = h * 31 + Objects.hashCode(method);
+            h = h * 31 + Objects.hashCode(host);
+            this.hash = h * 31 + port;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof StatsKey)) {
+                return false;
+            }
+            StatsKey that = (StatsKey) o;
+            return port == that.port && Objects.equals(service, that.service) && Objects.equals(method, that.method)
+                    && Objects.equals(host, that.host);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class InstanceMethodStats {
+
+        private final StatsKey key;
+
+        private final String callerIp;
+
+        /**
+         * 各返回状态的统计，数量很少，按写时复制的数组线性查找，避免装箱的 key
+         */
+        private volatile OutcomeStats[] outcomes = new OutcomeStats[0];
+
+        /**
+         * 只在汇总线程上访问
+         */
+        private int idleWindows;
+
+        InstanceMethodStats(StatsKey key, String callerIp) {
+            this.key = key;
+            this.callerIp = callerIp;
+        }
+
+        OutcomeStats getOutcome(RetStatus retStatus, int code) {
+            OutcomeStats outcome = findOutcome(outcomes, retStatus, code);
+            return null == outcome ? addOutcome(retStatus, code) : outcome;
+        }
+
+        private synchronized OutcomeStats addOutcome(RetStatus retStatus, int code) {
+            OutcomeStats[] current = outcomes;
+            OutcomeStats outcome = findOutcome(current, retStatus, code);
+            if (null == outcome) {
+                outcome = new OutcomeStats(retStatus, code);
+                OutcomeStats[] next = Arrays.copyOf(current, current.length + 1);
+                next[current.length] = outcome;
+                outcomes = next;
+            }
+            return outcome;
+        }
+
+        private static OutcomeStats findOutcome(OutcomeStats[] outcomes, RetStatus retStatus, int code) {
+            for (OutcomeStats outcome : outcomes) {
+                if (outcome.code == code && outcome.retStatus == retStatus) {
+                    return outcome;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 汇总时某个 (返回状态, 耗时分桶) 本窗口的调用次数与分配结果
+     */
+    private static class Cell {
+
+        private final OutcomeStats outcome;
+
+        private final int bucket;
+
+        private final long count;
+
+        private final long delay;
+
+        private double quota;
+
+        private int samples;
+
+        private long current;
+
+        Cell(OutcomeStats outcome, int bucket, long count, long delay) {
+            this.outcome = outcome;
+            this.bucket = bucket;
+            this.count = count;
+            this.delay = delay;
+        }
+    }
+
+    private static class OutcomeStats {
+
+        private final RetStatus retStatus;
+
+        private final int code;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS.length + 1];
+
+        private final LongAdder delaySum = new LongAdder();
+
+        /**
+         * 上一次汇总时的累计值，只在汇总线程上访问
+         */
+        private final long[] flushedBuckets = new long[BUCKET_BOUNDS.length + 1];
+
+        private long flushedDelaySum;
+
+        /**
+         * 各分桶尚未上报的份额余量，只在汇总线程上访问
+         */
+        private final double[] residuals = new double[BUCKET_BOUNDS.length + 1];
+
+        OutcomeStats(RetStatus retStatus, int code) {
+            this.retStatus = retStatus;
+            this.code = code;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long delay) {
+            buckets[bucketOf(delay)].increment();
+            delaySum.add(delay);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.report;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 有界、无锁的多生产者单消费者环形队列。
+ * <p>
+ * 生产者通过 CAS 占用写入位置后发布元素，队列满时直接返回 false；唯一的消费者按顺序读取，
+ * 读到尚未发布的位置时视为暂时为空，清空槽位后再推进读取位置，保证生产者看到的空闲槽位一定已被清空。
+ */
+class MpscRingBuffer<E> {
+
+    private final AtomicReferenceArray<E> buffer;
+
+    private final int mask;
+
+    private final AtomicLong producerIndex = new AtomicLong();
+
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    /**
+     * @param capacity 容量，向上取整为 2 的幂
+     */
+    MpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * @return 队列已满时返回 false
+     */
+    boolean offer(E element) {
+        long capacity = mask + 1;
+        while (true) {
+            long index = producerIndex.get();
+            if (index - consumerIndex.get() >= capacity) {
+                return false;
+            }
+            if (producerIndex.compareAndSet(index, index + 1)) {
+                buffer.lazySet((int) index & mask, element);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 只能由消费者线程调用
+     *
+     * @return 最多处理 limit 个元素，返回实际处理的数量
+     */
+    int drain(Consumer<E> consumer, int limit) {
+        long index = consumerIndex.get();
+        int count = 0;
+        while (count < limit) {
+            int offset = (int) index & mask;
+            E element = buffer.get(offset);
+            if (null == element) {
+                break;
+            }
+            buffer.lazySet(offset, null);
+            index++;
+            consumerIndex.lazySet(index);
+            count++;
+            consumer.accept(element);
+        }
+        return count;
+    }
+
+    int size() {
+        return (int) Math.max(producerIndex.get() - consumerIndex.get(), 0);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
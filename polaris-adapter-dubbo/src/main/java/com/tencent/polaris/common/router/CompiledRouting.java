@@ -0,0 +1,386 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.router;
+
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.api.pojo.RouteArgument;
+import com.tencent.polaris.api.utils.CollectionUtils;
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.specification.api.v1.model.ModelProto;
+import com.tencent.polaris.specification.api.v1.traffic.manage.RoutingProto;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 将某一版本的 {@link RoutingProto.Routing} 入流量规则编译为本地匹配器，避免每次路由都走 SDK 的完整路由链。
+ * <p>
+ * 请求标签先按 $method 的取值分派到候选规则，再依次匹配 source，命中后按优先级与权重选出目标实例子集。
+ * 规则中存在无法本地处理的写法（指定来源服务、EXACT/IN 以外的匹配方式、参数/变量类型取值等）时 {@link #isSupported()} 为 false，
+ * 未命中任何规则或者本地无法给出非空结果时 {@link #route(Set, List)} 返回 null，调用方需要回退到 SDK，由 SDK 按规则路由的兜底策略处理。
+ * <p>
+ * 这里只替代 SDK 路由链中的规则路由，本地结果仍需交给 SDK 的其余路由（隔离、就近、全死全活等）处理。
+ */
+public class CompiledRouting {
+
+    private final String revision;
+
+    private final boolean supported;
+
+    private final List<CompiledRoute> routes;
+
+    /**
+     * $method 精确匹配的取值 -> 可能命中的规则下标（保持规则原有顺序）
+     */
+    private final Map<String, int[]> routesByMethod;
+
+    /**
+     * 未限定 $method 精确取值的规则下标
+     */
+    private final int[] methodAgnosticRoutes;
+
+    private CompiledRouting(String revision, boolean supported, List<CompiledRoute> routes,
+                            Map<String, int[]> routesByMethod, int[] methodAgnosticRoutes) {
+        this.revision = revision;
+        this.supported = supported;
+        this.routes = routes;
+        this.routesByMethod = routesByMethod;
+        this.methodAgnosticRoutes = methodAgnosticRoutes;
+    }
+
+    public static CompiledRouting compile(RoutingProto.Routing routing) {
+        String service = routing.getService().getValue();
+        String namespace = routing.getNamespace().getValue();
+        String revision = routing.getRevision().getValue();
+        List<CompiledRoute> routes = new ArrayList<>();
+        for (RoutingProto.Route route : routing.getInboundsList()) {
+            CompiledRoute compiled = CompiledRoute.compile(route, namespace, service);
+            if (null == compiled) {
+                return new CompiledRouting(revision, false, Collections.emptyList(), Collections.emptyMap(),
+                        new int[0]);
+            }
+            routes.add(compiled);
+        }
+
+        Set<String> methods = new LinkedHashSet<>();
+        for (CompiledRoute route : routes) {
+            if (null != route.methods) {
+                methods.addAll(route.methods);
+            }
+        }
+        Map<String, int[]> routesByMethod = new HashMap<>();
+        for (String method : methods) {
+            routesByMethod.put(method, routeIndexes(routes, method));
+        }
+        return new CompiledRouting(revision, true, routes, routesByMethod, routeIndexes(routes, null));
+    }
+
+    private static int[] routeIndexes(List<CompiledRoute> routes, String method) {
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < routes.size(); i++) {
+            Set<String> routeMethods = routes.get(i).methods;
+            if (null == routeMethods || (null != method && routeMethods.contains(method))) {
+                indexes.add(i);
+            }
+        }
+        int[] result = new int[indexes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = indexes.get(i);
+        }
+        return result;
+    }
+
+    public boolean isSupported() {
+        return supported;
+    }
+
+    public String getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return 路由后的实例列表；未命中任何规则或命中规则但没有可用的目标实例时返回 null，交由 SDK 按其兜底策略处理
+     */
+    public List<Instance> route(Set<RouteArgument> arguments, List<Instance> instances) {
+        return route(arguments, instances, null);
+    }
+
+    /**
+     * 同 {@link #route(Set, List)}，传入实例所属列表的元数据索引时，目标实例的筛选通过索引完成
+     */
+    public List<Instance> route(Set<RouteArgument> arguments, List<Instance> instances, MetadataIndex index) {
+        CompiledRoute route = matchRoute(arguments);
+        if (null == route) {
+            return null;
+        }
+        if (null != index) {
+            BitSet candidates = index.toBitSet(instances);
+            if (null != candidates) {
+                BitSet selected = route.selectDestination(candidates, index, Intersection.BIT_SET);
+                return null == selected ? null : index.toInstances(selected);
+            }
+        }
+        return route.selectDestination(instances);
+    }
+
+    /**
+     * 基于下标集合的路由，candidates 为 index 中参与路由的实例下标
+     *
+     * @return 路由后的实例下标集合，语义同 {@link #route(Set, List)}
+     */
+    public BitSet route(Set<RouteArgument> arguments, BitSet candidates, MetadataIndex index) {
+        return route(arguments, candidates, index, Intersection.BIT_SET);
+    }
+
+    /**
+     * 同 {@link #route(Set, BitSet, MetadataIndex)}，候选集合使用调用方自己的表示，与索引结果的求交由 intersection 完成
+     */
+    public <S> S route(Set<RouteArgument> arguments, S candidates, MetadataIndex index, Intersection<S> intersection) {
+        CompiledRoute route = matchRoute(arguments);
+        if (null == route) {
+            return null;
+        }
+        return route.selectDestination(candidates, index, intersection);
+    }
+
+    private CompiledRoute matchRoute(Set<RouteArgument> arguments) {
+        if (routes.isEmpty()) {
+            return null;
+        }
+        Map<String, String> labels = new HashMap<>();
+        for (RouteArgument argument : arguments) {
+            argument.toLabel(labels);
+        }
+        String method = labels.get(RouteArgument.LABEL_KEY_METHOD);
+        int[] candidates = null == method ? methodAgnosticRoutes
+                : routesByMethod.getOrDefault(method, methodAgnosticRoutes);
+        for (int index : candidates) {
+            CompiledRoute route = routes.get(index);
+            if (route.matchSource(labels)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    private static final class CompiledRoute {
+
+        /**
+         * 每个 source 编译后的标签匹配器，多个 source 之间为或关系
+         */
+        private final List<Map<String, StringMatcher>> sources;
+
+        /**
+         * 所有 source 都限定了 $method 精确取值时的取值集合，否则为 null
+         */
+        private final Set<String> methods;
+
+        /**
+         * 按优先级从高到低（数值从小到大）排列的目标分组
+         */
+        private final List<List<CompiledDestination>> priorities;
+
+        private CompiledRoute(List<Map<String, StringMatcher>> sources, Set<String> methods,
+                              List<List<CompiledDestination>> priorities) {
+            this.sources = sources;
+            this.methods = methods;
+            this.priorities = priorities;
+        }
+
+        static CompiledRoute compile(RoutingProto.Route route, String namespace, String service) {
+            List<Map<String, StringMatcher>> sources = new ArrayList<>();
+            Set<String> methods = new LinkedHashSet<>();
+            for (RoutingProto.Source source : route.getSourcesList()) {
+                // Dubbo 调用时不携带主调服务信息，指定了来源服务的规则只能交给 SDK 处理
+                if (!isMatchAll(source.getNamespace().getValue()) || !isMatchAll(source.getService().getValue())) {
+                    return null;
+                }
+                Map<String, StringMatcher> matchers = compileMetadata(source.getMetadataMap());
+                if (null == matchers) {
+                    return null;
+                }
+                StringMatcher methodMatcher = matchers.get(RouteArgument.LABEL_KEY_METHOD);
+                if (null != methods && null != methodMatcher && null != methodMatcher.exactValue()) {
+                    methods.add(methodMatcher.exactValue());
+                } else {
+                    methods = null;
+                }
+                sources.add(matchers);
+            }
+            if (sources.isEmpty()) {
+                // 没有配置 source 时匹配所有请求
+                sources.add(Collections.emptyMap());
+                methods = null;
+            }
+
+            TreeMap<Integer, List<CompiledDestination>> priorities = new TreeMap<>();
+            for (RoutingProto.Destination destination : route.getDestinationsList()) {
+                if (!isMatchAllOrEquals(destination.getNamespace().getValue(), namespace)
+                        || !isMatchAllOrEquals(destination.getService().getValue(), service)) {
+                    return null;
+                }
+                if (destination.getIsolate().getValue() || destination.getWeight().getValue() <= 0) {
+                    continue;
+                }
+                Map<String, StringMatcher> matchers = compileMetadata(destination.getMetadataMap());
+                if (null == matchers) {
+                    return null;
+                }
+                priorities.computeIfAbsent(destination.getPriority().getValue(), key -> new ArrayList<>())
+                        .add(new CompiledDestination(matchers, destination.getWeight().getValue()));
+            }
+            return new CompiledRoute(sources, methods, new ArrayList<>(priorities.values()));
+        }
+
+        boolean matchSource(Map<String, String> labels) {
+            for (Map<String, StringMatcher> source : sources) {
+                if (matchAll(source, labels)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        List<Instance> selectDestination(List<Instance> instances) {
+            for (List<CompiledDestination> destinations : priorities) {
+                List<List<Instance>> subsets = new ArrayList<>(destinations.size());
+                int[] weights = new int[destinations.size()];
+                for (CompiledDestination destination : destinations) {
+                    List<Instance> subset = destination.filter(instances);
+                    if (!subset.isEmpty()) {
+                        weights[subsets.size()] = destination.weight;
+                        subsets.add(subset);
+                    }
+                }
+                if (!subsets.isEmpty()) {
+                    return subsets.get(chooseByWeight(weights, subsets.size()));
+                }
+            }
+            return null;
+        }
+
+        <S> S selectDestination(S candidates, MetadataIndex index, Intersection<S> intersection) {
+            for (List<CompiledDestination> destinations : priorities) {
+                List<S> subsets = new ArrayList<>(destinations.size());
+                int[] weights = new int[destinations.size()];
+                for (CompiledDestination destination : destinations) {
+                    S subset = destination.filter(candidates, index, intersection);
+                    if (!intersection.isEmpty(subset)) {
+                        weights[subsets.size()] = destination.weight;
+                        subsets.add(subset);
+                    }
+                }
+                if (!subsets.isEmpty()) {
+                    return subsets.get(chooseByWeight(weights, subsets.size()));
+                }
+            }
+            return null;
+        }
+
+        private static int chooseByWeight(int[] weights, int count) {
+            if (count == 1) {
+                return 0;
+            }
+            int totalWeight = 0;
+            for (int i = 0; i < count; i++) {
+                totalWeight += weights[i];
+            }
+            int random = ThreadLocalRandom.current().nextInt(totalWeight);
+            for (int i = 0; i < count; i++) {
+                random -= weights[i];
+                if (random < 0) {
+                    return i;
+                }
+            }
+            return count - 1;
+        }
+    }
+
+    private static final class CompiledDestination {
+
+        private final Map<String, StringMatcher> metadata;
+
+        private final int weight;
+
+        CompiledDestination(Map<String, StringMatcher> metadata, int weight) {
+            this.metadata = metadata;
+            this.weight = weight;
+        }
+
+        List<Instance> filter(List<Instance> instances) {
+            if (metadata.isEmpty()) {
+                return instances;
+            }
+            List<Instance> result = new ArrayList<>();
+            for (Instance instance : instances) {
+                if (matchAll(metadata, instance.getMetadata())) {
+                    result.add(instance);
+                }
+            }
+            return result;
+        }
+
+        <S> S filter(S candidates, MetadataIndex index, Intersection<S> intersection) {
+            if (metadata.isEmpty()) {
+                return candidates;
+            }
+            return intersection.and(candidates, index.match(this, metadata));
+        }
+    }
+
+    private static Map<String, StringMatcher> compileMetadata(Map<String, ModelProto.MatchString> metadata) {
+        if (CollectionUtils.isEmpty(metadata)) {
+            return Collections.emptyMap();
+        }
+        Map<String, StringMatcher> matchers = new HashMap<>(metadata.size());
+        for (Map.Entry<String, ModelProto.MatchString> entry : metadata.entrySet()) {
+            StringMatcher matcher = StringMatcher.compile(entry.getValue());
+            if (null == matcher) {
+                return null;
+            }
+            matchers.put(entry.getKey(), matcher);
+        }
+        return matchers;
+    }
+
+    private static boolean matchAll(Map<String, StringMatcher> matchers, Map<String, String> values) {
+        for (Map.Entry<String, StringMatcher> entry : matchers.entrySet()) {
+            String actual = null == values ? null : values.get(entry.getKey());
+            if (!entry.getValue().matches(actual)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isMatchAll(String value) {
+        return StringUtils.isBlank(value) || StringMatcher.MATCH_ALL.equals(value);
+    }
+
+    private static boolean isMatchAllOrEquals(String value, String expect) {
+        return isMatchAll(value) || StringUtils.equals(value, expect);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.tencent.polaris.common.router;
+
+import java.util.BitSet;
+
+/**
+ * 路由候选集合与预先计算的实例下标集合（元数据索引、地域划分）的求交方式，
+ * 编译后的路由规则与就近路由通过它直接作用在不同的候选集合表示上，如 {@link BitSet} 或 Dubbo 的 BitList。
+ *
+ * @param <S> 候选集合的类型，其下标与构建索引时的实例列表一致
+ */
+public interface Intersection<S> {
+
+    Intersection<BitSet> BIT_SET = new Intersection<BitSet>() {
+
+        @Override
+        public BitSet and(BitSet candidates, BitSet indexes) {
+            BitSet result = (BitSet) candidates.clone();
+            result.and(indexes);
+            return result;
+        }
+
+        @Override
+        public boolean isEmpty(BitSet candidates) {
+            return candidates.isEmpty();
+        }
+    };
+
+    /**
+     * @return 候选集合与下标集合的交集，不能修改传入的两个集合
+     */
+    S and(S candidates, BitSet indexes);
+
+    boolean isEmpty(S candidates);
+}
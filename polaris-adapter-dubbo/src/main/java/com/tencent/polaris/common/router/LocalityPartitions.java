@@ -0,0 +1,111 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.router;
+
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.common.utils.Consts;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 某一份实例列表按地域（region）与可用区（zone）预先划分的实例下标集合，
+ * 就近路由时同区域的实例直接查表得到，不再逐个实例比较地域信息。
+ */
+public class LocalityPartitions {
+
+    private static final BitSet EMPTY = new BitSet(0);
+
+    private final Map<String, BitSet> regions = new HashMap<>();
+
+    private final Map<String, Map<String, BitSet>> zones = new HashMap<>();
+
+    private final Map<String, BitSet> zoneNames = new HashMap<>();
+
+    public LocalityPartitions(List<? extends Instance> instances) {
+        for (int i = 0; i < instances.size(); i++) {
+            Instance instance = instances.get(i);
+            String region = StringUtils.defaultString(instance.getRegion());
+            regions.computeIfAbsent(region, key -> new BitSet(instances.size())).set(i);
+            // 不同 region 下可能存在同名的 zone，因此 zone 按 region 分组划分
+            String zone = StringUtils.defaultString(instance.getZone());
+            zones.computeIfAbsent(region, key -> new HashMap<>())
+                    .computeIfAbsent(zone, key -> new BitSet(instances.size())).set(i);
+            zoneNames.computeIfAbsent(zone, key -> new BitSet(instances.size())).set(i);
+        }
+    }
+
+    /**
+     * 就近路由：在路由结果中依次选取与本地同可用区、同地域的实例，都没有或未开启就近路由时返回原结果
+     *
+     * @param level 就近级别，zone 或 region
+     */
+    public BitSet select(BitSet routed, String level, String region, String zone) {
+        return select(routed, Intersection.BIT_SET, level, region, zone);
+    }
+
+    /**
+     * 同 {@link #select(BitSet, String, String, String)}，路由结果使用调用方自己的表示
+     */
+    public <S> S select(S routed, Intersection<S> intersection, String level, String region, String zone) {
+        if (StringUtils.isBlank(level)) {
+            return routed;
+        }
+        if (Consts.NEARBY_LEVEL_ZONE.equalsIgnoreCase(level)) {
+            S result = intersection.and(routed, getZone(region, zone));
+            if (!intersection.isEmpty(result)) {
+                return result;
+            }
+        }
+        if (Consts.NEARBY_LEVEL_ZONE.equalsIgnoreCase(level) || Consts.NEARBY_LEVEL_REGION.equalsIgnoreCase(level)) {
+            S result = intersection.and(routed, getRegion(region));
+            if (!intersection.isEmpty(result)) {
+                return result;
+            }
+        }
+        return routed;
+    }
+
+    /**
+     * @return 与本地位于同一地域的实例下标集合，调用方不能修改
+     */
+    public BitSet getRegion(String region) {
+        if (StringUtils.isBlank(region)) {
+            return EMPTY;
+        }
+        return regions.getOrDefault(region, EMPTY);
+    }
+
+    /**
+     * @return 与本地位于同一可用区的实例下标集合，调用方不能修改
+     */
+    public BitSet getZone(String region, String zone) {
+        if (StringUtils.isBlank(zone)) {
+            return EMPTY;
+        }
+        if (StringUtils.isNotBlank(region)) {
+            return zones.getOrDefault(region, Collections.emptyMap()).getOrDefault(zone, EMPTY);
+        }
+        // 本地未指定 region 时按 zone 名称匹配所有 region
+        return zoneNames.getOrDefault(zone, EMPTY);
+    }
+}
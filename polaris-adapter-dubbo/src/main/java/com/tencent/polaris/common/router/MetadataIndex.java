@@ -0,0 +1,140 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.router;
+
+import com.tencent.polaris.api.pojo.Instance;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 某一份实例列表的元数据倒排索引：metadata key -> value -> 实例下标集合。
+ * <p>
+ * 在 Invoker 列表/实例列表变化时新建，只对路由规则实际用到的 key 按需建索引，
+ * 目标实例的筛选由逐个实例比较元数据变为 {@link BitSet} 的求交。
+ */
+public class MetadataIndex {
+
+    private final List<? extends Instance> instances;
+
+    private final Map<String, Map<String, BitSet>> keyIndexes = new ConcurrentHashMap<>();
+
+    /**
+     * 编译后的目标规则 -> 命中的实例下标集合，规则版本不变时直接复用
+     */
+    private final Map<Object, BitSet> matchCache = new ConcurrentHashMap<>();
+
+    private volatile Map<Instance, Integer> positions;
+
+    public MetadataIndex(List<? extends Instance> instances) {
+        this.instances = Collections.unmodifiableList(new ArrayList<>(instances));
+    }
+
+    public int size() {
+        return instances.size();
+    }
+
+    public Instance get(int position) {
+        return instances.get(position);
+    }
+
+    /**
+     * 将实例列表转换为下标集合，存在不属于本索引的实例时返回 null
+     */
+    public BitSet toBitSet(List<? extends Instance> subset) {
+        Map<Instance, Integer> current = positions;
+        if (null == current) {
+            current = new IdentityHashMap<>(instances.size());
+            for (int i = 0; i < instances.size(); i++) {
+                current.put(instances.get(i), i);
+            }
+            positions = current;
+        }
+        BitSet result = new BitSet(instances.size());
+        for (Instance instance : subset) {
+            Integer position = current.get(instance);
+            if (null == position) {
+                return null;
+            }
+            result.set(position);
+        }
+        return result;
+    }
+
+    public List<Instance> toInstances(BitSet bitSet) {
+        List<Instance> result = new ArrayList<>(bitSet.cardinality());
+        for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
+            result.add(instances.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * @return 满足所有元数据匹配条件的实例下标集合，结果会被缓存，调用方不能修改
+     */
+    BitSet match(Object cacheKey, Map<String, StringMatcher> matchers) {
+        BitSet cached = matchCache.get(cacheKey);
+        if (null != cached) {
+            return cached;
+        }
+        BitSet result = new BitSet(instances.size());
+        result.set(0, instances.size());
+        for (Map.Entry<String, StringMatcher> entry : matchers.entrySet()) {
+            result.and(matchKey(entry.getKey(), entry.getValue()));
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        matchCache.put(cacheKey, result);
+        return result;
+    }
+
+    private BitSet matchKey(String key, StringMatcher matcher) {
+        Map<String, BitSet> values = keyIndexes.computeIfAbsent(key, this::buildKeyIndex);
+        String exact = matcher.exactValue();
+        if (null != exact) {
+            BitSet bitSet = values.get(exact);
+            return null == bitSet ? new BitSet() : bitSet;
+        }
+        BitSet result = new BitSet(instances.size());
+        for (Map.Entry<String, BitSet> entry : values.entrySet()) {
+            if (matcher.matches(entry.getKey())) {
+                result.or(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    private Map<String, BitSet> buildKeyIndex(String key) {
+        Map<String, BitSet> values = new HashMap<>();
+        for (int i = 0; i < instances.size(); i++) {
+            Map<String, String> metadata = instances.get(i).getMetadata();
+            String value = null == metadata ? null : metadata.get(key);
+            if (null != value) {
+                values.computeIfAbsent(value, v -> new BitSet(instances.size())).set(i);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.router;
+
+import com.tencent.polaris.api.pojo.RouteArgument;
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.common.parser.QueryParser;
+import com.tencent.polaris.common.registry.DubboServiceInfo;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.RpcContext;
+import org.apache.dubbo.rpc.RpcContextAttachment;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 某一版本路由规则的请求参数提取计划，规则中用到的 header 名称、query 表达式在构建时解析好，
+ * 路由时只需按计划从请求中取值
+ */
+public class RouteArgumentPlan {
+
+    private final String revision;
+
+    private final boolean path;
+
+    private final boolean method;
+
+    private final String[] headerNames;
+
+    private final String[] queryNames;
+
+    private final List<Function<Object[], Optional<String>>> queryAccessors;
+
+    private final int capacity;
+
+    private RouteArgumentPlan(String revision, boolean path, boolean method, List<String> headerNames,
+                              List<String> queryNames, List<Function<Object[], Optional<String>>> queryAccessors) {
+        this.revision = revision;
+        this.path = path;
+        this.method = method;
+        this.headerNames = headerNames.toArray(new String[0]);
+        this.queryNames = queryNames.toArray(new String[0]);
+        this.queryAccessors = queryAccessors;
+        int size = (path ? 1 : 0) + (method ? 1 : 0) + headerNames.size() + queryNames.size();
+        this.capacity = Math.max(size * 4 / 3 + 1, 1);
+    }
+
+    static RouteArgumentPlan build(String revision, Set<String> routeLabels, QueryParser parser) {
+        boolean path = false;
+        boolean method = false;
+        List<String> headerNames = new ArrayList<>();
+        List<String> queryNames = new ArrayList<>();
+        List<Function<Object[], Optional<String>>> queryAccessors = new ArrayList<>();
+        for (String routeLabel : routeLabels) {
+            // 接口全路径名称，仅支持 Dubbo 应用级注册场景
+            if (StringUtils.equals(RouteArgument.LABEL_KEY_PATH, routeLabel)) {
+                path = true;
+            }
+            // 设置具体的 Dubbo interface 下的某一个 method 名称
+            if (StringUtils.equals(RouteArgument.LABEL_KEY_METHOD, routeLabel)) {
+                method = true;
+            }
+            if (routeLabel.startsWith(RouteArgument.LABEL_KEY_HEADER)) {
+                headerNames.add(routeLabel.substring(RouteArgument.LABEL_KEY_HEADER.length()));
+            }
+            if (routeLabel.startsWith(RouteArgument.LABEL_KEY_QUERY)) {
+                String queryName = routeLabel.substring(RouteArgument.LABEL_KEY_QUERY.length());
+                if (!StringUtils.isBlank(queryName)) {
+                    queryNames.add(queryName);
+                    queryAccessors.add(parser.compile(queryName));
+                }
+            }
+        }
+        return new RouteArgumentPlan(revision, path, method, headerNames, queryNames, queryAccessors);
+    }
+
+    public String getRevision() {
+        return revision;
+    }
+
+    public Set<RouteArgument> extract(DubboServiceInfo serviceInfo, Invocation invocation) {
+        Set<RouteArgument> arguments = new HashSet<>(capacity);
+        if (path && StringUtils.isNotBlank(serviceInfo.getDubboInterface())) {
+            arguments.add(RouteArgument.buildPath(serviceInfo.getDubboInterface()));
+        }
+        if (method) {
+            arguments.add(RouteArgument.buildMethod(invocation.getMethodName()));
+        }
+        if (headerNames.length > 0) {
+            RpcContextAttachment attachments = RpcContext.getClientAttachment();
+            for (String headerName : headerNames) {
+                String value = attachments.getAttachment(headerName);
+                if (!StringUtils.isBlank(value)) {
+                    arguments.add(RouteArgument.buildHeader(headerName, value));
+                }
+            }
+        }
+        for (int i = 0; i < queryNames.length; i++) {
+            Optional<String> value = queryAccessors.get(i).apply(invocation.getArguments());
+            if (value.isPresent()) {
+                arguments.add(RouteArgument.buildQuery(queryNames[i], value.get()));
+            }
+        }
+        return arguments;
+    }
+}
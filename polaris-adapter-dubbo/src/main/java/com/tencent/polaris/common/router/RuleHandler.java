@@ -19,6 +19,7 @@ package com.tencent.polaris.common.router;
 
 import com.tencent.polaris.api.utils.CollectionUtils;
 
+import com.tencent.polaris.common.parser.QueryParser;
 import com.tencent.polaris.common.registry.TimedCache;
 import com.tencent.polaris.specification.api.v1.model.ModelProto;
 import com.tencent.polaris.specification.api.v1.traffic.manage.RateLimitProto;
@@ -28,31 +29,49 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class RuleHandler {
 
-    private final Map<String, TimedCache<Set<String>>> routeRuleMatchLabels = new ConcurrentHashMap<>();
-
     private final Map<String, TimedCache<Set<RateLimitProto.MatchArgument>>> ratelimitArguments = new ConcurrentHashMap<>();
 
+    /**
+     * 每个服务只保留最新版本规则的编译结果，规则版本变化时重新编译。
+     * RuleHandler 由各路由器单独持有，路由规则都属于同一个命名空间，按服务名缓存即可
+     */
+    private final Map<String, CompiledRouting> compiledRoutings = new ConcurrentHashMap<>();
+
+    private final Map<String, RouteArgumentPlan> routeArgumentPlans = new ConcurrentHashMap<>();
+
     private final Object lock = new Object();
 
-    public Set<String> getRouteLabels(RoutingProto.Routing routing) {
-        TimedCache<Set<String>> setTimedCache = routeRuleMatchLabels.get(routing.getRevision().getValue());
-        if (null != setTimedCache && !setTimedCache.isExpired()) {
-            return setTimedCache.getValue();
+    /**
+     * 获取路由规则对应的请求参数提取计划，每个服务只保留最新版本规则的计划
+     */
+    public RouteArgumentPlan getRouteArgumentPlan(RoutingProto.Routing routing, QueryParser parser) {
+        String key = routing.getService().getValue();
+        String revision = routing.getRevision().getValue();
+        RouteArgumentPlan plan = routeArgumentPlans.get(key);
+        if (null != plan && Objects.equals(revision, plan.getRevision())) {
+            return plan;
         }
-        synchronized (lock) {
-            setTimedCache = routeRuleMatchLabels.get(routing.getRevision().getValue());
-            if (null != setTimedCache && !setTimedCache.isExpired()) {
-                return setTimedCache.getValue();
-            }
-            TimedCache<Set<String>> timedCache = new TimedCache<>(buildRouteLabels(routing));
-            routeRuleMatchLabels.put(routing.getRevision().getValue(), timedCache);
-            return timedCache.getValue();
+        plan = RouteArgumentPlan.build(revision, buildRouteLabels(routing), parser);
+        routeArgumentPlans.put(key, plan);
+        return plan;
+    }
+
+    public CompiledRouting getCompiledRouting(RoutingProto.Routing routing) {
+        String key = routing.getService().getValue();
+        String revision = routing.getRevision().getValue();
+        CompiledRouting compiledRouting = compiledRoutings.get(key);
+        if (null != compiledRouting && Objects.equals(revision, compiledRouting.getRevision())) {
+            return compiledRouting;
         }
+        compiledRouting = CompiledRouting.compile(routing);
+        compiledRoutings.put(key, compiledRouting);
+        return compiledRouting;
     }
 
     private static Set<String> buildRouteLabels(RoutingProto.Routing routing) {
@@ -0,0 +1,115 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.router;
+
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.specification.api.v1.model.ModelProto;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 预编译的 {@link ModelProto.MatchString}，IN 的取值集合只在规则编译时解析一次。
+ * <p>
+ * 只编译 EXACT 与 IN 两种匹配方式：请求标签或实例元数据中不存在对应 key 时二者都不匹配，与 SDK 的行为一致。
+ * 全匹配（*）、取反（NOT_EQUALS、NOT_IN）与正则匹配在 key 不存在时的语义依赖 SDK 的实现细节，一律交给 SDK 处理。
+ */
+abstract class StringMatcher {
+
+    static final String MATCH_ALL = "*";
+
+    /**
+     * 编译匹配规则，遇到不支持的匹配方式时返回 null，由调用方回退到 SDK
+     */
+    static StringMatcher compile(ModelProto.MatchString matchString) {
+        if (matchString.getValueType() != ModelProto.MatchString.ValueType.TEXT) {
+            return null;
+        }
+        String expect = matchString.getValue().getValue();
+        if (StringUtils.isBlank(expect) || StringUtils.equals(MATCH_ALL, expect)) {
+            return null;
+        }
+        switch (matchString.getType()) {
+            case EXACT:
+                return new Exact(expect);
+            case IN:
+                return In.compile(expect);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param actual 请求标签或实例元数据中的取值，为 null 表示不存在该 key
+     */
+    abstract boolean matches(String actual);
+
+    /**
+     * 精确匹配时的期望值，其余匹配方式返回 null
+     */
+    String exactValue() {
+        return null;
+    }
+
+    private static final class Exact extends StringMatcher {
+
+        private final String expect;
+
+        Exact(String expect) {
+            this.expect = expect;
+        }
+
+        @Override
+        boolean matches(String actual) {
+            return StringUtils.equals(expect, actual);
+        }
+
+        @Override
+        String exactValue() {
+            return expect;
+        }
+    }
+
+    private static final class In extends StringMatcher {
+
+        private final Set<String> values;
+
+        private In(Set<String> values) {
+            this.values = values;
+        }
+
+        /**
+         * 取值前后带空白时 SDK 是否去除空白无法确定，交给 SDK 处理
+         */
+        static In compile(String expect) {
+            Set<String> values = new HashSet<>();
+            for (String value : expect.split(",")) {
+                if (value.isEmpty() || !value.equals(value.trim())) {
+                    return null;
+                }
+                values.add(value);
+            }
+            return new In(values);
+        }
+
+        @Override
+        boolean matches(String actual) {
+            return null != actual && values.contains(actual);
+        }
+    }
+}
@@ -48,6 +48,18 @@ public interface Consts {
 
     String INSTANCE_KEY_ID = "_internal_id";
 
+    String INSTANCE_KEY_REGION = "_internal_region";
+
+    String INSTANCE_KEY_ZONE = "_internal_zone";
+
+    String INSTANCE_KEY_CAMPUS = "_internal_campus";
+
+    String METADATA_KEY_REGION = "region";
+
+    String METADATA_KEY_ZONE = "zone";
+
+    String METADATA_KEY_CAMPUS = "campus";
+
     String INSTANCE_VERSION = "version";
 
     String INSTANCE_WEIGHT = "weight";
@@ -59,4 +71,81 @@ public interface Consts {
     String DISCOVER_PORT = "discover_port";
 
     String DEFAULT_VERSION = "1.0.0";
+
+    String KEY_ROUTER_MODE = "router_mode";
+
+    String ROUTER_MODE_STATE = "state";
+
+    /**
+     * 开启后由本地编译的匹配器替代 SDK 路由链中的规则路由，其余路由（隔离、就近、全死全活等）仍由 SDK 执行；
+     * 未命中任何规则、规则无可用目标实例时交给完整的 SDK 路由链，由其按兜底策略（如 none）处理。
+     * 与 SDK 的差异：隔离路由在本地选出目标分组之后执行，目标分组中的实例全部被隔离时才回退到 SDK 重新选择分组
+     */
+    String KEY_ROUTER_RULE_COMPILE = "router_rule_compile";
+
+    String KEY_NOTIFY_COALESCE_WINDOW = "notify_coalesce_window";
+
+    String KEY_NOTIFY_COALESCE_MAX_DELAY = "notify_coalesce_max_delay";
+
+    long DEFAULT_NOTIFY_COALESCE_WINDOW = 100;
+
+    long DEFAULT_NOTIFY_COALESCE_MAX_DELAY = 1000;
+
+    String KEY_NOTIFY_THREADS = "notify_threads";
+
+    String KEY_REGISTER_CONCURRENCY = "register_concurrency";
+
+    String KEY_DEREGISTER_TIMEOUT = "deregister_timeout";
+
+    long DEFAULT_DEREGISTER_TIMEOUT = 3000;
+
+    String KEY_WARM_START = "warm_start";
+
+    String KEY_WARM_START_DIR = "warm_start_dir";
+
+    String KEY_HEARTBEAT_MODE = "heartbeat_mode";
+
+    String KEY_LAZY_SUBSCRIBE = "lazy_subscribe";
+
+    String KEY_LAZY_SUBSCRIBE_IDLE_TIMEOUT = "lazy_subscribe_idle_timeout";
+
+    String KEY_SERVICE_CATALOG_MAX_STALENESS = "service_catalog_max_staleness";
+
+    long DEFAULT_SERVICE_CATALOG_MAX_STALENESS = 10000;
+
+    String KEY_REPORT_QUEUE_SIZE = "report_queue_size";
+
+    String KEY_REPORT_FULL_POLICY = "report_full_policy";
+
+    String REPORT_FULL_POLICY_CALLER_RUNS = "caller_runs";
+
+    String KEY_REPORT_AGGREGATE_WINDOW = "report_aggregate_window";
+
+    String KEY_REPORT_AGGREGATE_MAX_SAMPLES = "report_aggregate_max_samples";
+
+    int DEFAULT_REPORT_AGGREGATE_MAX_SAMPLES = 16;
+
+    String HEARTBEAT_MODE_GROUPED = "grouped";
+
+    String KEY_ROUTER_NEARBY = "router_nearby";
+
+    String KEY_LOCAL_REGION = "local_region";
+
+    String KEY_LOCAL_ZONE = "local_zone";
+
+    String NEARBY_LEVEL_ZONE = "zone";
+
+    String NEARBY_LEVEL_REGION = "region";
+
+    String KEY_LB_POLICY = "polaris_lb_policy";
+
+    String KEY_LB_HASH_HEADER = "polaris_lb_hash_header";
+
+    String KEY_LB_HASH_QUERY = "polaris_lb_hash_query";
+
+    String LB_POLICY_WEIGHTED_RANDOM = "weightedRandom";
+
+    String LB_POLICY_RING_HASH = "ringHash";
+
+    String LB_POLICY_P2C = "p2c";
 }
@@ -29,6 +29,7 @@ import org.apache.dubbo.rpc.Invoker;
 import org.apache.dubbo.rpc.model.ScopeModel;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -95,6 +96,17 @@ public class DubboUtils {
         return serviceInfos;
     }
 
+    /**
+     * @return 提供者对应的北极星服务名，顺序与 {@link #analyzeRemoteDubboServiceInfo(Invoker, Invocation)} 一致
+     */
+    public static <T> List<String> analyzeRemoteServices(Invoker<T> invoker) {
+        URL providerUrl = invoker.getUrl();
+        if (checkIsApplicationMode(invoker)) {
+            return Arrays.asList(providerUrl.getRemoteApplication(), providerUrl.getServiceInterface());
+        }
+        return Collections.singletonList(providerUrl.getServiceInterface());
+    }
+
     private static <T> boolean checkIsApplicationMode(Invoker<T> invoker) {
         URL providerUrl = invoker.getUrl();
         if (providerUrl instanceof InstanceAddressURL) {
@@ -0,0 +1,73 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.utils;
+
+/**
+ * 将 IPv4 地址与端口打包为一个 long，用作无装箱的实例 key：高 32 位为 IP，低 16 位为端口
+ */
+public final class HostPortKeys {
+
+    /**
+     * 无法打包（非 IPv4 地址或端口非法）时返回的值
+     */
+    public static final long INVALID = -1L;
+
+    private HostPortKeys() {
+    }
+
+    public static long pack(String host, int port) {
+        if (null == host || port < 0 || port > 0xFFFF) {
+            return INVALID;
+        }
+        long ip = 0;
+        int segment = 0;
+        int segments = 0;
+        int digits = 0;
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c >= '0' && c <= '9') {
+                segment = segment * 10 + (c - '0');
+                digits++;
+                if (digits > 3 || segment > 255) {
+                    return INVALID;
+                }
+            } else if (c == '.' && digits > 0 && segments < 3) {
+                ip = (ip << 8) | segment;
+                segments++;
+                segment = 0;
+                digits = 0;
+            } else {
+                return INVALID;
+            }
+        }
+        if (segments != 3 || digits == 0) {
+            return INVALID;
+        }
+        ip = (ip << 8) | segment;
+        return (ip << 16) | port;
+    }
+
+    public static String host(long key) {
+        long ip = key >>> 16;
+        return ((ip >>> 24) & 0xFF) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF);
+    }
+
+    public static int port(long key) {
+        return (int) (key & 0xFFFF);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricRegistryTest {
+
+    @Test
+    public void testInstanceGauge() {
+        String first = MetricRegistry.instanceGauge("polaris_dubbo_test_depth", () -> 1);
+        String second = MetricRegistry.instanceGauge("polaris_dubbo_test_depth", () -> 2);
+        Assert.assertNotEquals(first, second);
+        Assert.assertEquals(Long.valueOf(1), MetricRegistry.snapshot().get(first));
+        Assert.assertEquals(Long.valueOf(2), MetricRegistry.snapshot().get(second));
+
+        MetricRegistry.unregister(first);
+        Assert.assertFalse(MetricRegistry.snapshot().containsKey(first));
+        Assert.assertEquals(Long.valueOf(2), MetricRegistry.snapshot().get(second));
+        MetricRegistry.unregister(second);
+    }
+}
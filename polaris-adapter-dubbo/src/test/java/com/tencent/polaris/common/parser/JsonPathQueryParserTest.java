@@ -22,6 +22,7 @@ import org.junit.Test;
 import shade.polaris.com.google.gson.Gson;
 
 import java.util.Optional;
+import java.util.function.Function;
 
 public class JsonPathQueryParserTest {
 
@@ -84,4 +85,38 @@ public class JsonPathQueryParserTest {
         ret = parser.parse("param.$.color", new Object[]{bicyleObj});
         Assert.assertEquals("red", ret.orElse(""));
     }
+
+    @Test
+    public void testCompile() {
+        Object bootObj = new Gson().fromJson(TEST_STR_BOOK, Object.class);
+        Object bicyleObj = new Gson().fromJson(TEST_STR_BICYLE, Object.class);
+
+        JsonPathQueryParser parser = new JsonPathQueryParser();
+        String[] queries = {"param.$.book[0].category", "param.$.book[2].isbn", "param.$.bicycle.price",
+                "param[1].$.color", "param[1]$.price"};
+        Object[][] parameterList = {{bootObj, bicyleObj}, {bootObj, bicyleObj, "other"}};
+        for (String query : queries) {
+            Function<Object[], Optional<String>> compiled = parser.compile(query);
+            // 同一个取值函数可以重复用于不同的参数
+            for (Object[] parameters : parameterList) {
+                Assert.assertEquals(query, parser.parse(query, parameters), compiled.apply(parameters));
+            }
+        }
+        Assert.assertEquals("fiction", parser.compile("param.$.book[1].category")
+                .apply(new Object[]{bootObj}).orElse(""));
+        Assert.assertEquals("red", parser.compile("param[1].$.color")
+                .apply(new Object[]{bootObj, bicyleObj}).orElse(""));
+    }
+
+    @Test
+    public void testCompileMissingParameter() {
+        Object bicyleObj = new Gson().fromJson(TEST_STR_BICYLE, Object.class);
+        JsonPathQueryParser parser = new JsonPathQueryParser();
+
+        Assert.assertFalse(parser.compile("param[1].$.color").apply(new Object[]{bicyleObj}).isPresent());
+        Assert.assertFalse(parser.compile("param.$.color").apply(null).isPresent());
+        Assert.assertFalse(parser.compile("param.$.color").apply(new Object[0]).isPresent());
+        // 不以 param 开头的表达式不取值
+        Assert.assertFalse(parser.compile("$.color").apply(new Object[]{bicyleObj}).isPresent());
+    }
 }
\ No newline at end of file
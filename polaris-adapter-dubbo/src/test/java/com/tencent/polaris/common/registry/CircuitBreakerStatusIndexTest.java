@@ -0,0 +1,54 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.tencent.polaris.common.registry;
+
+import com.tencent.polaris.common.registry.CircuitBreakerStatusIndex.OpenInstances;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CircuitBreakerStatusIndexTest {
+
+    @Test
+    public void testOpenInstances() {
+        OpenInstances open = OpenInstances.EMPTY.with("10.0.0.2", 20880).with("10.0.0.1", 20880)
+                .with("fe80::1", 20880).with("fe80::1", 20881).with("provider.local", 20880);
+        Assert.assertTrue(open.contains("10.0.0.1", 20880));
+        Assert.assertTrue(open.contains("10.0.0.2", 20880));
+        Assert.assertFalse(open.contains("10.0.0.2", 20881));
+        Assert.assertTrue(open.contains("fe80::1", 20880));
+        Assert.assertTrue(open.contains("fe80::1", 20881));
+        Assert.assertFalse(open.contains("fe80::1", 20882));
+        Assert.assertTrue(open.contains("provider.local", 20880));
+        Assert.assertSame(open, open.with("fe80::1", 20880));
+
+        List<String> visited = new ArrayList<>();
+        open.forEach((host, port) -> visited.add(host + ":" + port));
+        Assert.assertEquals(5, visited.size());
+
+        OpenInstances closed = open.without("fe80::1", 20880).without("10.0.0.1", 20880)
+                .without("provider.local", 20880);
+        Assert.assertFalse(closed.contains("fe80::1", 20880));
+        Assert.assertTrue(closed.contains("fe80::1", 20881));
+        Assert.assertFalse(closed.contains("10.0.0.1", 20880));
+        Assert.assertTrue(closed.contains("10.0.0.2", 20880));
+        Assert.assertFalse(closed.contains("provider.local", 20880));
+        Assert.assertTrue(closed.without("fe80::1", 20881).without("10.0.0.2", 20880).isEmpty());
+    }
+}
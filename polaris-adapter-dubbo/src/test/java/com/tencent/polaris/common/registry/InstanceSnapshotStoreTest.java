@@ -0,0 +1,112 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.registry;
+
+import com.tencent.polaris.api.pojo.DefaultInstance;
+import com.tencent.polaris.api.pojo.Instance;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class InstanceSnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        String dir = folder.newFolder().getAbsolutePath();
+        InstanceSnapshotStore store = new InstanceSnapshotStore(dir, "default");
+        Assert.assertNull(store.load("com.example.GreetingService"));
+
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("version", "1.0.0");
+        metadata.put("中文", "值");
+        DefaultInstance instance = new DefaultInstance();
+        instance.setId("id-1");
+        instance.setHost("10.0.0.1");
+        instance.setPort(20880);
+        instance.setProtocol("dubbo");
+        instance.setRevision("rev-1");
+        instance.setWeight(50);
+        instance.setHealthy(true);
+        instance.setZone("ap-guangzhou-3");
+        instance.setPriority(2);
+        instance.setLogicSet("set-a");
+        instance.setMetadata(metadata);
+        store.save("com.example.GreetingService", new Instance[]{instance});
+
+        Instance[] loaded = new InstanceSnapshotStore(dir, "default").load("com.example.GreetingService");
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(1, loaded.length);
+        Assert.assertEquals("default", loaded[0].getNamespace());
+        Assert.assertEquals("com.example.GreetingService", loaded[0].getService());
+        Assert.assertEquals("id-1", loaded[0].getId());
+        Assert.assertEquals("10.0.0.1", loaded[0].getHost());
+        Assert.assertEquals(20880, loaded[0].getPort());
+        Assert.assertEquals("rev-1", loaded[0].getRevision());
+        Assert.assertEquals(50, loaded[0].getWeight());
+        Assert.assertTrue(loaded[0].isHealthy());
+        Assert.assertFalse(loaded[0].isIsolated());
+        Assert.assertEquals("ap-guangzhou-3", loaded[0].getZone());
+        Assert.assertNull(loaded[0].getRegion());
+        Assert.assertEquals(2, loaded[0].getPriority());
+        Assert.assertEquals("set-a", loaded[0].getLogicSet());
+        Assert.assertEquals(metadata, loaded[0].getMetadata());
+    }
+
+    @Test
+    public void testLoadCorrupted() throws Exception {
+        File dir = folder.newFolder();
+        DefaultInstance instance = new DefaultInstance();
+        instance.setId("id-1");
+        instance.setHost("10.0.0.1");
+        instance.setPort(20880);
+        new InstanceSnapshotStore(dir.getAbsolutePath(), "default").save("svc", new Instance[]{instance});
+        Path file = dir.listFiles()[0].toPath();
+        byte[] origin = Files.readAllBytes(file);
+
+        // 实例个数被改为极大值
+        byte[] bytes = origin.clone();
+        ByteBuffer.wrap(bytes).putInt(16, Integer.MAX_VALUE);
+        Files.write(file, bytes);
+        Assert.assertNull(new InstanceSnapshotStore(dir.getAbsolutePath(), "default").load("svc"));
+
+        // 第一个字符串的长度超出文件剩余长度
+        bytes = origin.clone();
+        ByteBuffer.wrap(bytes).putInt(20, Integer.MAX_VALUE - 1);
+        Files.write(file, bytes);
+        Assert.assertNull(new InstanceSnapshotStore(dir.getAbsolutePath(), "default").load("svc"));
+
+        // 文件被截断
+        Files.write(file, Arrays.copyOf(origin, origin.length - 3));
+        Assert.assertNull(new InstanceSnapshotStore(dir.getAbsolutePath(), "default").load("svc"));
+
+        Files.write(file, origin);
+        Assert.assertEquals(1, new InstanceSnapshotStore(dir.getAbsolutePath(), "default").load("svc").length);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.registry;
+
+import org.apache.dubbo.common.URL;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SharedParametersTest {
+
+    private static final int INSTANCE_COUNT = 2000;
+
+    @Test
+    public void testIntern() {
+        SharedParameters sharedParameters = new SharedParameters();
+        Map<String, String> first = newParameters(1);
+        Map<String, String> second = newParameters(2);
+
+        Map<String, String> internedFirst = sharedParameters.intern(first);
+        Map<String, String> internedSecond = sharedParameters.intern(second);
+        Assert.assertEquals(first, internedFirst);
+        Assert.assertEquals(second, internedSecond);
+        Assert.assertNotSame(first.get("methods"), second.get("methods"));
+        Assert.assertSame(internedFirst.get("methods"), internedSecond.get("methods"));
+        Assert.assertNotEquals(internedFirst.get("pid"), internedSecond.get("pid"));
+    }
+
+    @Test
+    public void testRetainedUrlSize() {
+        // 模拟每个实例的元数据单独反序列化：内容相同的字符串也是不同的对象
+        SharedParameters sharedParameters = new SharedParameters();
+        List<URL> plainUrls = new ArrayList<>(INSTANCE_COUNT);
+        List<URL> sharedUrls = new ArrayList<>(INSTANCE_COUNT);
+        for (int i = 0; i < INSTANCE_COUNT; i++) {
+            Map<String, String> parameters = newParameters(i);
+            String host = "10.0." + (i / 256) + "." + (i % 256);
+            plainUrls.add(new URL(copy("dubbo"), host, 20880, parameters.get("path"), parameters));
+            Map<String, String> interned = sharedParameters.intern(newParameters(i));
+            sharedUrls.add(new URL(sharedParameters.intern(copy("dubbo")), host, 20880, interned.get("path"),
+                    interned));
+        }
+        for (int i = 0; i < INSTANCE_COUNT; i++) {
+            Assert.assertEquals(plainUrls.get(i), sharedUrls.get(i));
+        }
+        long plainSize = retainedStringSize(plainUrls);
+        long sharedSize = retainedStringSize(sharedUrls);
+        Assert.assertTrue("plain " + plainSize + " bytes, shared " + sharedSize + " bytes",
+                sharedSize * 3 < plainSize);
+    }
+
+    private static Map<String, String> newParameters(int index) {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(copy("interface"), copy("com.example.GreetingService"));
+        parameters.put(copy("path"), copy("com.example.GreetingService"));
+        parameters.put(copy("application"), copy("greeting-provider"));
+        parameters.put(copy("methods"), copy("sayHello,sayHi,sayGoodbye,echo,ping"));
+        parameters.put(copy("side"), copy("provider"));
+        parameters.put(copy("version"), copy("1.0.0"));
+        parameters.put(copy("dubbo"), copy("2.0.2"));
+        parameters.put(copy("release"), copy("3.2.7"));
+        parameters.put(copy("timeout"), copy("3000"));
+        parameters.put(copy("anyhost"), copy("true"));
+        parameters.put(copy("deprecated"), copy("false"));
+        parameters.put(copy("dynamic"), copy("true"));
+        parameters.put(copy("generic"), copy("false"));
+        parameters.put(copy("service-name-mapping"), copy("true"));
+        parameters.put(copy("weight"), copy("100"));
+        parameters.put(copy("_internal_healthy"), copy("true"));
+        parameters.put(copy("_internal_isolated"), copy("false"));
+        parameters.put(copy("_internal_id"), "instance-" + index);
+        parameters.put(copy("pid"), Integer.toString(10000 + index));
+        parameters.put(copy("timestamp"), Long.toString(1700000000000L + index));
+        return parameters;
+    }
+
+    private static String copy(String value) {
+        return new String(value.toCharArray());
+    }
+
+    /**
+     * 按 64 位 JVM 开启压缩指针时的对象布局，估算 URL 持有的参数字符串占用的堆大小，同一个字符串对象只计算一次
+     */
+    private static long retainedStringSize(List<URL> urls) {
+        Map<Object, Boolean> visited = new IdentityHashMap<>();
+        long size = 0;
+        for (URL url : urls) {
+            size += sizeOf(url.getProtocol(), visited) + sizeOf(url.getPath(), visited);
+            for (Map.Entry<String, String> entry : url.getParameters().entrySet()) {
+                size += sizeOf(entry.getKey(), visited) + sizeOf(entry.getValue(), visited);
+            }
+        }
+        return size;
+    }
+
+    private static long sizeOf(String value, Map<Object, Boolean> visited) {
+        if (null == value || null != visited.put(value, Boolean.TRUE)) {
+            return 0;
+        }
+        return 24 + align(16 + value.length());
+    }
+
+    private static long align(long size) {
+        return (size + 7) / 8 * 8;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.tencent.polaris.common.report;
+
+import com.tencent.polaris.api.pojo.RetStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class InvokeResultReporterTest {
+
+    @Test
+    public void testWakeUpWhenIdle() throws InterruptedException {
+        List<InvokeResult> handled = new CopyOnWriteArrayList<>();
+        InvokeResultReporter reporter = new InvokeResultReporter(16, false, handled::add);
+        for (int i = 0; i < 3; i++) {
+            // 每次放入前后台线程都已处于空闲挂起状态
+            Thread.sleep(50);
+            reporter.report(result(false));
+            long deadline = System.currentTimeMillis() + 1000;
+            while (handled.size() < i + 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(i + 1, handled.size());
+        }
+        reporter.close();
+    }
+
+    @Test
+    public void testCircuitBreakerStatNeverDropped() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        InvokeResultReporter reporter = new InvokeResultReporter(2, false, result -> {
+            threads.add(Thread.currentThread());
+            if (blocked.getCount() > 0) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        reporter.report(result(false));
+        Assert.assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        // 后台线程被阻塞，填满队列
+        reporter.report(result(false));
+        reporter.report(result(false));
+
+        reporter.report(result(false));
+        Assert.assertEquals(1, threads.size());
+        reporter.report(result(true));
+        Assert.assertEquals(2, threads.size());
+        Assert.assertSame(Thread.currentThread(), threads.get(1));
+
+        release.countDown();
+        reporter.close();
+        // 被丢弃的只有不带熔断统计的一条
+        Assert.assertEquals(4, threads.size());
+    }
+
+    private static InvokeResult result(boolean circuitBreakerStat) {
+        return new InvokeResult("svc", "sayHello", "10.0.0.1", 20880, "10.0.0.2", 3, RetStatus.RetFail, 500,
+                circuitBreakerStat);
+    }
+}
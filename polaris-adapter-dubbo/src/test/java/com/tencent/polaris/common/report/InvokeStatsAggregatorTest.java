@@ -0,0 +1,124 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.report;
+
+import com.tencent.polaris.api.pojo.RetStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class InvokeStatsAggregatorTest {
+
+    @Test
+    public void testFlushSamples() {
+        List<InvokeResult> results = new ArrayList<>();
+        InvokeStatsAggregator aggregator = new InvokeStatsAggregator(60000, 10, results::add);
+        for (int i = 0; i < 900; i++) {
+            aggregator.record("svc", "sayHello", "10.0.0.1", 20880, "10.0.0.2", 3, RetStatus.RetSuccess, 0);
+        }
+        for (int i = 0; i < 100; i++) {
+            aggregator.record("svc", "sayHello", "10.0.0.1", 20880, "10.0.0.2", 300, RetStatus.RetTimeout, -1);
+        }
+        aggregator.record("svc", "sayHello", "10.0.0.1", 20880, "10.0.0.2", 3, RetStatus.RetFail, 500);
+        aggregator.close();
+
+        int success = 0;
+        int timeout = 0;
+        int fail = 0;
+        for (InvokeResult result : results) {
+            Assert.assertEquals("svc", result.getService());
+            Assert.assertEquals(20880, result.getPort());
+            if (result.getRetStatus() == RetStatus.RetSuccess) {
+                success++;
+                Assert.assertEquals(3, result.getDelay());
+            } else if (result.getRetStatus() == RetStatus.RetTimeout) {
+                timeout++;
+                Assert.assertEquals(300, result.getDelay());
+            } else {
+                fail++;
+                Assert.assertEquals(500, result.getCode());
+            }
+        }
+        // 按调用次数以最大余数法分配，不足一条的失败留到后续窗口，不会被放大
+        Assert.assertEquals(9, success);
+        Assert.assertEquals(1, timeout);
+        Assert.assertEquals(0, fail);
+    }
+
+    @Test
+    public void testErrorRatePreserved() {
+        List<InvokeResult> results = new ArrayList<>();
+        InvokeStatsAggregator aggregator = new InvokeStatsAggregator(60000, 16, results::add);
+        for (int window = 0; window < 200; window++) {
+            for (int i = 0; i < 970; i++) {
+                aggregator.record("svc", "sayHello", "10.0.0.1", 20880, "10.0.0.2", 3, RetStatus.RetSuccess, 0);
+            }
+            for (int i = 0; i < 29; i++) {
+                aggregator.record("svc", "sayHello", "10.0.0.1", 20880, "10.0.0.2", 3, RetStatus.RetFail, 500);
+            }
+            aggregator.record("svc", "sayHello", "10.0.0.1", 20880, "10.0.0.2", 3, RetStatus.RetTimeout, -1);
+            aggregator.flush();
+        }
+        aggregator.close();
+
+        int fail = 0;
+        int timeout = 0;
+        for (InvokeResult result : results) {
+            if (result.getRetStatus() == RetStatus.RetFail) {
+                fail++;
+            } else if (result.getRetStatus() == RetStatus.RetTimeout) {
+                timeout++;
+            }
+        }
+        Assert.assertEquals(200 * 16, results.size());
+        // 实际错误率 2.9% 与 0.1%，上报结果的误差不超过一条
+        Assert.assertEquals(0.029 * results.size(), fail, 1);
+        Assert.assertEquals(0.001 * results.size(), timeout, 1);
+    }
+
+    @Test
+    public void testFailuresInterleaved() {
+        List<InvokeResult> results = new ArrayList<>();
+        InvokeStatsAggregator aggregator = new InvokeStatsAggregator(60000, 16, results::add);
+        for (int i = 0; i < 750; i++) {
+            aggregator.record("svc", "sayHello", "10.0.0.1", 20880, "10.0.0.2", 3, RetStatus.RetSuccess, 0);
+        }
+        for (int i = 0; i < 250; i++) {
+            aggregator.record("svc", "sayHello", "10.0.0.1", 20880, "10.0.0.2", 3, RetStatus.RetFail, 500);
+        }
+        aggregator.close();
+
+        Assert.assertEquals(16, results.size());
+        int fail = 0;
+        int consecutive = 0;
+        int maxConsecutive = 0;
+        for (InvokeResult result : results) {
+            if (result.getRetStatus() == RetStatus.RetFail) {
+                fail++;
+                maxConsecutive = Math.max(maxConsecutive, ++consecutive);
+            } else {
+                consecutive = 0;
+            }
+        }
+        Assert.assertEquals(4, fail);
+        // 失败结果与成功结果交错上报，不会成组触发连续错误熔断
+        Assert.assertEquals(1, maxConsecutive);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.report;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MpscRingBufferTest {
+
+    @Test
+    public void testOfferWhenFull() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(3);
+        Assert.assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(buffer.offer(i));
+        }
+        Assert.assertFalse(buffer.offer(4));
+        List<Integer> drained = new ArrayList<>();
+        Assert.assertEquals(2, buffer.drain(drained::add, 2));
+        Assert.assertTrue(buffer.offer(5));
+        Assert.assertEquals(3, buffer.drain(drained::add, Integer.MAX_VALUE));
+        Assert.assertEquals("[0, 1, 2, 3, 5]", drained.toString());
+        Assert.assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        int producers = 4;
+        int perProducer = 50000;
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(1024);
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        AtomicInteger count = new AtomicInteger();
+        long sum = 0;
+        List<Integer> batch = new ArrayList<>();
+        while (count.get() < producers * perProducer) {
+            batch.clear();
+            buffer.drain(batch::add, 256);
+            for (Integer value : batch) {
+                sum += value;
+            }
+            count.addAndGet(batch.size());
+        }
+        done.await();
+        Assert.assertEquals((long) producers * perProducer * (perProducer - 1) / 2, sum);
+        Assert.assertEquals(0, buffer.size());
+    }
+}
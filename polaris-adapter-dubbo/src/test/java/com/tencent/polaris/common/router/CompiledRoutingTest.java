@@ -0,0 +1,162 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.router;
+
+import com.google.protobuf.BoolValue;
+import com.google.protobuf.StringValue;
+import com.google.protobuf.UInt32Value;
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.api.pojo.RouteArgument;
+import com.tencent.polaris.specification.api.v1.model.ModelProto.MatchString.MatchStringType;
+import com.tencent.polaris.specification.api.v1.traffic.manage.RoutingProto;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class CompiledRoutingTest {
+
+    private static final String SERVICE = "com.tencent.polaris.HelloService";
+
+    private static final String NAMESPACE = "default";
+
+    @Test
+    public void testRouteByMethod() {
+        CompiledRouting routing = compile(RoutingProto.Route.newBuilder()
+                .addSources(source(RouteArgument.LABEL_KEY_METHOD, MatchStringType.EXACT, "sayHello"))
+                .addDestinations(destination("gray", 0, false))
+                .build());
+        Assert.assertTrue(routing.isSupported());
+        List<Instance> instances = MetadataIndexTest.instances("gray", "base", "gray", null);
+
+        List<Instance> result = routing.route(arguments("sayHello"), instances);
+        Assert.assertEquals(2, result.size());
+        Assert.assertSame(instances.get(0), result.get(0));
+        Assert.assertSame(instances.get(2), result.get(1));
+        // 未命中任何规则时交给 SDK，由 SDK 按兜底策略处理
+        Assert.assertNull(routing.route(arguments("sayHi"), instances));
+    }
+
+    @Test
+    public void testPriorityAndIsolate() {
+        CompiledRouting routing = compile(RoutingProto.Route.newBuilder()
+                .addDestinations(destination("gray", 0, true))
+                .addDestinations(destination("canary", 0, false))
+                .addDestinations(destination("base", 1, false))
+                .build());
+        List<Instance> instances = MetadataIndexTest.instances("gray", "base", null);
+
+        // 隔离的目标不参与路由，高优先级没有实例时降级到下一优先级
+        List<Instance> result = routing.route(arguments("sayHello"), instances);
+        Assert.assertEquals(Collections.singletonList(instances.get(1)), result);
+        // 命中规则但没有可用的目标实例时交给 SDK
+        Assert.assertNull(routing.route(arguments("sayHello"), MetadataIndexTest.instances("gray", null)));
+    }
+
+    @Test
+    public void testUnsupportedRules() {
+        Assert.assertFalse(compile(RoutingProto.Route.newBuilder()
+                .addSources(source("env", MatchStringType.REGEX, "^g"))
+                .addDestinations(destination("gray", 0, false))
+                .build()).isSupported());
+        Assert.assertFalse(compile(RoutingProto.Route.newBuilder()
+                .addSources(source("env", MatchStringType.EXACT, "*"))
+                .addDestinations(destination("gray", 0, false))
+                .build()).isSupported());
+        Assert.assertFalse(compile(RoutingProto.Route.newBuilder()
+                .addSources(RoutingProto.Source.newBuilder().setNamespace(StringValue.of(NAMESPACE))
+                        .setService(StringValue.of("caller")).build())
+                .addDestinations(destination("gray", 0, false))
+                .build()).isSupported());
+        Assert.assertFalse(compile(RoutingProto.Route.newBuilder()
+                .addDestinations(RoutingProto.Destination.newBuilder()
+                        .putMetadata("env", StringMatcherTest.matchString(MatchStringType.NOT_EQUALS, "gray"))
+                        .setWeight(UInt32Value.of(100)).build())
+                .build()).isSupported());
+    }
+
+    @Test
+    public void testIndexMatchesListRouting() {
+        CompiledRouting routing = compile(
+                RoutingProto.Route.newBuilder()
+                        .addSources(source(RouteArgument.LABEL_KEY_METHOD, MatchStringType.EXACT, "sayHello"))
+                        .addDestinations(destination("a", 0, false))
+                        .addDestinations(destination("b", 1, false))
+                        .build(),
+                RoutingProto.Route.newBuilder()
+                        .addSources(source(RouteArgument.LABEL_KEY_METHOD, MatchStringType.IN, "sayHi,sayBye"))
+                        .addDestinations(RoutingProto.Destination.newBuilder()
+                                .putMetadata("env", StringMatcherTest.matchString(MatchStringType.IN, "b,c"))
+                                .setWeight(UInt32Value.of(100)).build())
+                        .build());
+        String[] envs = {"a", "b", "c", null};
+        String[] methods = {"sayHello", "sayHi", "sayBye", "other"};
+        Random random = new Random(0);
+        for (int round = 0; round < 200; round++) {
+            String[] instanceEnvs = new String[1 + random.nextInt(8)];
+            for (int i = 0; i < instanceEnvs.length; i++) {
+                instanceEnvs[i] = envs[random.nextInt(envs.length)];
+            }
+            List<Instance> instances = MetadataIndexTest.instances(instanceEnvs);
+            MetadataIndex index = new MetadataIndex(instances);
+            BitSet all = new BitSet();
+            all.set(0, instances.size());
+            for (String method : methods) {
+                Set<RouteArgument> arguments = arguments(method);
+                List<Instance> expect = routing.route(arguments, instances);
+                Assert.assertEquals(expect, routing.route(arguments, instances, index));
+                BitSet selected = routing.route(arguments, all, index);
+                Assert.assertEquals(expect, null == selected ? null : index.toInstances(selected));
+            }
+        }
+    }
+
+    private static CompiledRouting compile(RoutingProto.Route... routes) {
+        RoutingProto.Routing.Builder builder = RoutingProto.Routing.newBuilder()
+                .setNamespace(StringValue.of(NAMESPACE)).setService(StringValue.of(SERVICE))
+                .setRevision(StringValue.of("1"));
+        for (RoutingProto.Route route : routes) {
+            builder.addInbounds(route);
+        }
+        return CompiledRouting.compile(builder.build());
+    }
+
+    private static RoutingProto.Source source(String key, MatchStringType type, String value) {
+        return RoutingProto.Source.newBuilder().setNamespace(StringValue.of("*")).setService(StringValue.of("*"))
+                .putMetadata(key, StringMatcherTest.matchString(type, value)).build();
+    }
+
+    private static RoutingProto.Destination destination(String env, int priority, boolean isolate) {
+        return RoutingProto.Destination.newBuilder().setNamespace(StringValue.of(NAMESPACE))
+                .setService(StringValue.of(SERVICE))
+                .putMetadata("env", StringMatcherTest.matchString(MatchStringType.EXACT, env))
+                .setPriority(UInt32Value.of(priority)).setWeight(UInt32Value.of(100))
+                .setIsolate(BoolValue.of(isolate)).build();
+    }
+
+    private static Set<RouteArgument> arguments(String method) {
+        Set<RouteArgument> arguments = new HashSet<>();
+        arguments.add(RouteArgument.buildMethod(method));
+        return arguments;
+    }
+}
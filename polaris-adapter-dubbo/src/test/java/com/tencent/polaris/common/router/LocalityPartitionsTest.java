@@ -0,0 +1,68 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.tencent.polaris.common.router;
+
+import com.tencent.polaris.api.pojo.DefaultInstance;
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.common.utils.Consts;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+public class LocalityPartitionsTest {
+
+    @Test
+    public void testSelect() {
+        List<Instance> instances = new ArrayList<>();
+        instances.add(instance("gz", "gz-1"));
+        instances.add(instance("gz", "gz-2"));
+        instances.add(instance("sh", "gz-1"));
+        instances.add(instance("sh", "sh-1"));
+        LocalityPartitions partitions = new LocalityPartitions(instances);
+        BitSet all = new BitSet();
+        all.set(0, instances.size());
+
+        Assert.assertEquals(bits(0), partitions.select(all, Consts.NEARBY_LEVEL_ZONE, "gz", "gz-1"));
+        // 同名的 zone 按 region 区分，本地未指定 region 时匹配所有 region
+        Assert.assertEquals(bits(0, 2), partitions.select(all, Consts.NEARBY_LEVEL_ZONE, null, "gz-1"));
+        // 同可用区没有实例时降级到同地域
+        Assert.assertEquals(bits(0, 1), partitions.select(bits(0, 1, 3), Consts.NEARBY_LEVEL_ZONE, "gz", "gz-3"));
+        Assert.assertEquals(bits(2, 3), partitions.select(all, Consts.NEARBY_LEVEL_REGION, "sh", "sh-1"));
+        // 同地域也没有实例或者未开启就近路由时保持原结果
+        BitSet routed = bits(2, 3);
+        Assert.assertSame(routed, partitions.select(routed, Consts.NEARBY_LEVEL_REGION, "gz", null));
+        Assert.assertSame(all, partitions.select(all, null, "gz", "gz-1"));
+    }
+
+    private static BitSet bits(int... indexes) {
+        BitSet bitSet = new BitSet();
+        for (int index : indexes) {
+            bitSet.set(index);
+        }
+        return bitSet;
+    }
+
+    private static Instance instance(String region, String zone) {
+        DefaultInstance instance = new DefaultInstance();
+        instance.setRegion(region);
+        instance.setZone(zone);
+        return instance;
+    }
+}
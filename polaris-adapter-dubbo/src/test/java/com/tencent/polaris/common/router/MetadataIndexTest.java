@@ -0,0 +1,94 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.router;
+
+import com.tencent.polaris.api.pojo.DefaultInstance;
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.specification.api.v1.model.ModelProto.MatchString.MatchStringType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MetadataIndexTest {
+
+    @Test
+    public void testToBitSet() {
+        List<Instance> instances = instances("a", "b", null, "a");
+        MetadataIndex index = new MetadataIndex(instances);
+
+        BitSet bitSet = index.toBitSet(Arrays.asList(instances.get(3), instances.get(1)));
+        Assert.assertEquals(2, bitSet.cardinality());
+        Assert.assertTrue(bitSet.get(1));
+        Assert.assertTrue(bitSet.get(3));
+        Assert.assertEquals(Arrays.asList(instances.get(1), instances.get(3)), index.toInstances(bitSet));
+        // 不属于本索引的实例
+        Assert.assertNull(index.toBitSet(Collections.singletonList(instance("a"))));
+    }
+
+    @Test
+    public void testMatchSameAsInstanceByInstance() {
+        List<Instance> instances = instances("a", "b", null, "a", "c", null);
+        MetadataIndex index = new MetadataIndex(instances);
+        List<Map<String, StringMatcher>> rules = Arrays.asList(
+                Collections.singletonMap("env", StringMatcher.compile(
+                        StringMatcherTest.matchString(MatchStringType.EXACT, "a"))),
+                Collections.singletonMap("env", StringMatcher.compile(
+                        StringMatcherTest.matchString(MatchStringType.IN, "b,c"))),
+                Collections.singletonMap("env", StringMatcher.compile(
+                        StringMatcherTest.matchString(MatchStringType.EXACT, "x"))));
+        for (Map<String, StringMatcher> rule : rules) {
+            BitSet expect = new BitSet();
+            for (int i = 0; i < instances.size(); i++) {
+                String actual = instances.get(i).getMetadata().get("env");
+                if (rule.get("env").matches(actual)) {
+                    expect.set(i);
+                }
+            }
+            BitSet actual = index.match(rule, rule);
+            Assert.assertEquals(expect, actual);
+            // 同一规则的结果被缓存
+            Assert.assertSame(actual, index.match(rule, rule));
+        }
+    }
+
+    static List<Instance> instances(String... envs) {
+        List<Instance> instances = new ArrayList<>();
+        for (String env : envs) {
+            instances.add(instance(env));
+        }
+        return instances;
+    }
+
+    static Instance instance(String env) {
+        DefaultInstance instance = new DefaultInstance();
+        Map<String, String> metadata = new HashMap<>();
+        if (null != env) {
+            metadata.put("env", env);
+        }
+        metadata.put("protocol", "dubbo");
+        instance.setMetadata(metadata);
+        return instance;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.router;
+
+import com.google.protobuf.StringValue;
+import com.tencent.polaris.specification.api.v1.model.ModelProto.MatchString;
+import com.tencent.polaris.specification.api.v1.model.ModelProto.MatchString.MatchStringType;
+import com.tencent.polaris.specification.api.v1.model.ModelProto.MatchString.ValueType;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StringMatcherTest {
+
+    @Test
+    public void testExact() {
+        StringMatcher matcher = StringMatcher.compile(matchString(MatchStringType.EXACT, "v1"));
+        Assert.assertTrue(matcher.matches("v1"));
+        Assert.assertFalse(matcher.matches("v2"));
+        // key 不存在时不匹配，与 SDK 一致
+        Assert.assertFalse(matcher.matches(null));
+        Assert.assertEquals("v1", matcher.exactValue());
+    }
+
+    @Test
+    public void testIn() {
+        StringMatcher matcher = StringMatcher.compile(matchString(MatchStringType.IN, "v1,v2"));
+        Assert.assertTrue(matcher.matches("v1"));
+        Assert.assertTrue(matcher.matches("v2"));
+        Assert.assertFalse(matcher.matches("v3"));
+        Assert.assertFalse(matcher.matches("v1,v2"));
+        Assert.assertFalse(matcher.matches(null));
+        Assert.assertNull(matcher.exactValue());
+    }
+
+    @Test
+    public void testAmbiguousSemanticsLeftToSdk() {
+        // key 不存在时的行为取决于 SDK 实现，这些写法都不编译
+        Assert.assertNull(StringMatcher.compile(matchString(MatchStringType.EXACT, "*")));
+        Assert.assertNull(StringMatcher.compile(matchString(MatchStringType.EXACT, "")));
+        Assert.assertNull(StringMatcher.compile(matchString(MatchStringType.NOT_EQUALS, "v1")));
+        Assert.assertNull(StringMatcher.compile(matchString(MatchStringType.NOT_IN, "v1,v2")));
+        Assert.assertNull(StringMatcher.compile(matchString(MatchStringType.REGEX, "^v")));
+        Assert.assertNull(StringMatcher.compile(matchString(MatchStringType.RANGE, "1~10")));
+        Assert.assertNull(StringMatcher.compile(matchString(MatchStringType.IN, "v1, v2")));
+        Assert.assertNull(StringMatcher.compile(MatchString.newBuilder().setType(MatchStringType.EXACT)
+                .setValueType(ValueType.PARAMETER).setValue(StringValue.of("v1")).build()));
+    }
+
+    static MatchString matchString(MatchStringType type, String value) {
+        return MatchString.newBuilder().setType(type).setValueType(ValueType.TEXT).setValue(StringValue.of(value))
+                .build();
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.tencent.polaris.common.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HostPortKeysTest {
+
+    @Test
+    public void testPackAndUnpack() {
+        long key = HostPortKeys.pack("192.168.10.255", 20880);
+        Assert.assertNotEquals(HostPortKeys.INVALID, key);
+        Assert.assertEquals("192.168.10.255", HostPortKeys.host(key));
+        Assert.assertEquals(20880, HostPortKeys.port(key));
+        Assert.assertNotEquals(key, HostPortKeys.pack("192.168.10.255", 20881));
+    }
+
+    @Test
+    public void testInvalidHost() {
+        Assert.assertEquals(HostPortKeys.INVALID, HostPortKeys.pack("::1", 20880));
+        Assert.assertEquals(HostPortKeys.INVALID, HostPortKeys.pack("localhost", 20880));
+        Assert.assertEquals(HostPortKeys.INVALID, HostPortKeys.pack("10.0.0.256", 20880));
+        Assert.assertEquals(HostPortKeys.INVALID, HostPortKeys.pack("10.0.0", 20880));
+        Assert.assertEquals(HostPortKeys.INVALID, HostPortKeys.pack("10.0.0.1.", 20880));
+        Assert.assertEquals(HostPortKeys.INVALID, HostPortKeys.pack("10.0.0.1", 65536));
+    }
+}